@@ -0,0 +1,191 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Parser for the simple "yyyy-MM-dd HH:mm:ss TYPE user=... ip=..." format, allocation-free.
+ *
+ * Accepts the same lines as LogDetector.parseLine: the line is trimmed, split on whitespace,
+ * needs at least 5 tokens, tokens 0 and 1 form a yyyy-MM-dd HH:mm:ss timestamp, token 2 is the
+ * event type and the last user=... / ip=... tokens after it win.
+ *
+ * Most lines of a real auth log are not logins at all (cron, PAM, sudo). A line laid out exactly
+ * as "yyyy-MM-dd HH:mm:ss TYPE ..." is recognized by a fixed byte pattern, and if TYPE is not a
+ * login event it is reported as NOT_LOGIN without being tokenized or having its timestamp
+ * decoded. Such lines are counted apart from malformed ones.
+ */
+final class AuthLineParser extends EventParser {
+    //Canonical line prefix for the pre-filter: 'D' is any digit, other bytes must match
+    private static final byte[] CANONICAL_PREFIX = ascii("DDDD-DD-DD DD:DD:DD ");
+
+    private static final byte[] USER_PREFIX = ascii("user=");
+    private static final byte[] IP_PREFIX = ascii("ip=");
+
+    //Date token of the last valid timestamp (its 10 bytes as a long and a short) and the
+    //epoch second of its midnight. Consecutive lines almost always share the date.
+    private long cachedDateHead;
+    private short cachedDateTail;
+    private long cachedMidnight = INVALID_TIME;
+
+    /**
+     * Parses buf[start, end) as one log line.
+     * @return
+     * - OK if the line is a valid event, results are in the fields
+     * - NOT_LOGIN if the pre-filter sees a canonical line whose type is not a login event
+     * - otherwise the first reason the line is not a valid log line, checked in the order
+     *   SHORT_LINE, BAD_TIMESTAMP, MISSING_USER, MISSING_IP.
+     */
+    @Override
+    int parse(ByteBuffer buf, int start, int end) {
+        if (isOtherEvent(buf, start, end)) {
+            return NOT_LOGIN;
+        }
+
+        //Trim like String.trim(): drop bytes <= ' ' on both ends
+        while (start < end && (buf.get(start) & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (buf.get(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+
+        int dateStart = 0, dateEnd = 0, timeStart = 0, timeEnd = 0, typeStart = 0, typeEnd = 0;
+        int tokens = 0;
+        int userFrom = -1, userTo = -1, ipFrom = -1, ipTo = -1;
+
+        //Walk the whitespace separated tokens once
+        int i = start;
+        while (i < end) {
+            int tokenStart = i;
+            i = ByteScanner.BEST.indexOfSpace(buf, i, end);
+            int tokenEnd = i;
+            if (tokens == 0) {
+                dateStart = tokenStart;
+                dateEnd = tokenEnd;
+            } else if (tokens == 1) {
+                timeStart = tokenStart;
+                timeEnd = tokenEnd;
+            } else if (tokens == 2) {
+                typeStart = tokenStart;
+                typeEnd = tokenEnd;
+            } else if (startsWith(buf, tokenStart, tokenEnd, USER_PREFIX)) {
+                userFrom = tokenStart + USER_PREFIX.length;
+                userTo = tokenEnd;
+            } else if (startsWith(buf, tokenStart, tokenEnd, IP_PREFIX)) {
+                ipFrom = tokenStart + IP_PREFIX.length;
+                ipTo = tokenEnd;
+            }
+            tokens++;
+            while (i < end && isSpace(buf.get(i))) {
+                i++;
+            }
+        }
+
+        //Need at least: date, time, type, user=, ip=
+        if (tokens < 5) {
+            return SHORT_LINE;
+        }
+
+        long time = decodeTimestamp(buf, dateStart, dateEnd, timeStart, timeEnd);
+        if (time == INVALID_TIME) {
+            return BAD_TIMESTAMP;
+        }
+
+        if (userFrom < 0) {
+            return MISSING_USER;
+        }
+        if (ipFrom < 0) {
+            return MISSING_IP;
+        }
+
+        epochSecond = time;
+        type = eventType(buf, typeStart, typeEnd);
+        userStart = userFrom;
+        userEnd = userTo;
+        ipStart = ipFrom;
+        ipEnd = ipTo;
+        return OK;
+    }
+
+    /**
+     * Converts "yyyy-MM-dd" and "HH:mm:ss" tokens to epoch seconds (UTC).
+     * Mirrors the SMART resolver used by LocalDateTime.parse: a day past the end of the month
+     * is clamped to the last day and 24:00:00 rolls over to the next day.
+     * The date is only decoded when it differs from the previous line's; otherwise its cached
+     * midnight is reused and just HH:mm:ss is read.
+     * @return epoch seconds, or INVALID_TIME if the tokens are not a valid timestamp
+     */
+    private long decodeTimestamp(ByteBuffer buf, int dateStart, int dateEnd, int timeStart, int timeEnd) {
+        if (dateEnd - dateStart != 10 || timeEnd - timeStart != 8) {
+            return INVALID_TIME;
+        }
+        long midnight;
+        long dateHead = buf.getLong(dateStart);
+        short dateTail = buf.getShort(dateStart + 8);
+        if (cachedMidnight != INVALID_TIME && dateHead == cachedDateHead && dateTail == cachedDateTail) {
+            midnight = cachedMidnight;
+        } else {
+            midnight = decodeDate(buf, dateStart);
+            if (midnight == INVALID_TIME) {
+                return INVALID_TIME;
+            }
+            cachedDateHead = dateHead;
+            cachedDateTail = dateTail;
+            cachedMidnight = midnight;
+        }
+
+        if (buf.get(timeStart + 2) != ':' || buf.get(timeStart + 5) != ':') {
+            return INVALID_TIME;
+        }
+        int hour = digits(buf, timeStart, 2);
+        int minute = digits(buf, timeStart + 3, 2);
+        int second = digits(buf, timeStart + 6, 2);
+        if (hour < 0 || hour > 24 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return INVALID_TIME;
+        }
+        if (hour == 24 && (minute != 0 || second != 0)) {
+            return INVALID_TIME;
+        }
+        return midnight + hour * 3600 + minute * 60 + second;
+    }
+
+    /**
+     * Full decode of a 10 byte "yyyy-MM-dd" token.
+     * @return epoch second of its midnight, or INVALID_TIME if it is not a valid date
+     */
+    private static long decodeDate(ByteBuffer buf, int dateStart) {
+        if (buf.get(dateStart + 4) != '-' || buf.get(dateStart + 7) != '-') {
+            return INVALID_TIME;
+        }
+        int year = digits(buf, dateStart, 4);
+        int month = digits(buf, dateStart + 5, 2);
+        int day = digits(buf, dateStart + 8, 2);
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return INVALID_TIME;
+        }
+        day = Math.min(day, lengthOfMonth(year, month));
+        return epochDay(year, month, day) * 86400L;
+    }
+
+    /**
+     * Pre-filter: true if buf[start, end) starts with the canonical timestamp layout and the
+     * token right after it is not FAILED_LOGIN or SUCCESS_LOGIN. A line that does not match the
+     * layout (leading spaces, tabs, other separators) returns false and is parsed in full.
+     */
+    private static boolean isOtherEvent(ByteBuffer buf, int start, int end) {
+        int typeStart = start + CANONICAL_PREFIX.length;
+        if (typeStart >= end) {
+            return false;
+        }
+        for (int i = 0; i < CANONICAL_PREFIX.length; i++) {
+            byte expected = CANONICAL_PREFIX[i];
+            byte b = buf.get(start + i);
+            if (expected == 'D' ? (b < '0' || b > '9') : b != expected) {
+                return false;
+            }
+        }
+        if (isSpace(buf.get(typeStart))) {
+            return false;
+        }
+        int typeEnd = ByteScanner.BEST.indexOfSpace(buf, typeStart, end);
+        return eventType(buf, typeStart, typeEnd) == TYPE_OTHER;
+    }
+}
@@ -0,0 +1,149 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Rolling windows as failure counts per BUCKET_SECONDS: constant memory per IP however fast it
+ * fails, and O(1) work per failure.
+ *
+ * Each IP slot holds a circular array of BUCKETS int counts, bucket b (epoch second divided by
+ * BUCKET_SECONDS) at index b % BUCKETS, the number of the newest bucket and the window total.
+ * The total is kept up to date as failures are added and old buckets are recycled, so it is never
+ * summed. The buckets cover the exact window (WINDOW_SPAN_SECONDS) plus the oldest bucket, which
+ * is only partly inside it and is counted whole. So a window count includes every failure exact
+ * mode counts and possibly some up to BUCKET_SECONDS older, never fewer; window start times are
+ * rounded down to a bucket boundary. A late failure older than the oldest bucket is not counted.
+ */
+final class BucketedIpStore extends IpStore {
+    static final int BUCKET_SECONDS = 10;
+    static final int BUCKETS = DetectorState.WINDOW_SPAN_SECONDS / BUCKET_SECONDS + 1;
+
+    //Window fields of the IP slot, after the header
+    private static final int WINDOW = HEADER_SIZE; //failures in the window
+    private static final int NEWEST = HEADER_SIZE + 4; //newest bucket number
+    private static final int USED = HEADER_SIZE + 12; //1 if the IP has a window
+    private static final int COUNTS = HEADER_SIZE + 16; //BUCKETS ints
+    private static final int SLOT_SIZE = COUNTS + BUCKETS * Integer.BYTES;
+
+    BucketedIpStore() {
+        super(SLOT_SIZE);
+    }
+
+    @Override
+    String name() {
+        return "bucketed";
+    }
+
+    @Override
+    String accuracy() {
+        return "bucketed, " + BUCKETS + " x " + BUCKET_SECONDS + " s; counts may include failures up to "
+                + BUCKET_SECONDS + " s older than the window, window starts rounded down to " + BUCKET_SECONDS + " s";
+    }
+
+    /**
+     * The oldest bucket is recycled once a failure BUCKETS buckets newer arrives.
+     */
+    @Override
+    long reach() {
+        return (BUCKETS + 1) * BUCKET_SECONDS;
+    }
+
+    @Override
+    int addFailure(int ip, long time) {
+        long bucket = Math.floorDiv(time, BUCKET_SECONDS);
+        int window = slots.getInt(ip, WINDOW);
+        if (slots.getInt(ip, USED) == 0) {
+            slots.putInt(ip, USED, 1);
+            slots.putLong(ip, NEWEST, bucket);
+        } else {
+            long newest = slots.getLong(ip, NEWEST);
+            if (bucket > newest) {
+                //Recycle the buckets that take the array positions of the new ones; an empty
+                //window has nothing to subtract
+                for (long b = Math.max(newest + 1, bucket - BUCKETS + 1); b <= bucket && window > 0; b++) {
+                    int offset = offset(b);
+                    window -= slots.getInt(ip, offset);
+                    slots.putInt(ip, offset, 0);
+                }
+                slots.putLong(ip, NEWEST, bucket);
+            } else if (bucket <= newest - BUCKETS) {
+                return window; //before the oldest bucket
+            }
+        }
+        int offset = offset(bucket);
+        slots.putInt(ip, offset, slots.getInt(ip, offset) + 1);
+        window++;
+        slots.putInt(ip, WINDOW, window);
+        return window;
+    }
+
+    /**
+     * @return the start of the oldest bucket with a failure
+     */
+    @Override
+    long windowStart(int ip) {
+        long newest = slots.getLong(ip, NEWEST);
+        long bucket = newest - BUCKETS + 1;
+        while (bucket < newest && slots.getInt(ip, offset(bucket)) == 0) {
+            bucket++;
+        }
+        return bucket * BUCKET_SECONDS;
+    }
+
+    @Override
+    boolean hasWindow(int ip) {
+        return slots.getInt(ip, USED) != 0;
+    }
+
+    @Override
+    void clearWindow(int ip) {
+        for (int i = 0; i < BUCKETS; i++) {
+            slots.putInt(ip, COUNTS + i * Integer.BYTES, 0);
+        }
+        slots.putInt(ip, WINDOW, 0);
+        slots.putLong(ip, NEWEST, 0);
+        slots.putInt(ip, USED, 0);
+    }
+
+    @Override
+    void copyWindow(int ip, IpStore from, int fromIp) {
+        from.slots.copyTo(fromIp, WINDOW, slots, ip, WINDOW, SLOT_SIZE - WINDOW);
+    }
+
+    /**
+     * Writes the newest bucket number and the counts, oldest bucket first.
+     */
+    @Override
+    void writeWindow(int ip, DataOutputStream out) throws IOException {
+        boolean used = hasWindow(ip);
+        out.writeBoolean(used);
+        if (used) {
+            long newest = slots.getLong(ip, NEWEST);
+            out.writeLong(newest);
+            for (long b = newest - BUCKETS + 1; b <= newest; b++) {
+                out.writeInt(slots.getInt(ip, offset(b)));
+            }
+        }
+    }
+
+    @Override
+    void readWindow(int ip, DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return;
+        }
+        long newest = in.readLong();
+        int window = 0;
+        for (long b = newest - BUCKETS + 1; b <= newest; b++) {
+            int count = in.readInt();
+            slots.putInt(ip, offset(b), count);
+            window += count;
+        }
+        slots.putLong(ip, NEWEST, newest);
+        slots.putInt(ip, WINDOW, window);
+        slots.putInt(ip, USED, 1);
+    }
+
+    private static int offset(long bucket) {
+        return COUNTS + Math.floorMod(bucket, BUCKETS) * Integer.BYTES;
+    }
+}
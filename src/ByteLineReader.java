@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads lines from an InputStream as raw byte ranges, without decoding them to chars.
+ *
+ * Line terminators match BufferedReader.readLine: \n, \r or \r\n, and a last line without a
+ * terminator is still returned.
+ */
+final class ByteLineReader implements LineSource {
+    private static final int INITIAL_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private byte[] buf = new byte[INITIAL_SIZE];
+    private ByteBuffer view = ByteBuffer.wrap(buf);
+
+    private int pos; //first byte not yet returned
+    private int limit; //end of the bytes read so far
+    private boolean eof;
+    private boolean skipLf; //previous line ended with \r, so a leading \n belongs to it
+
+    private int lineStart;
+    private int lineEnd;
+
+    ByteLineReader(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        int scan = pos;
+        while (true) {
+            if (skipLf && pos < limit) {
+                if (buf[pos] == '\n') {
+                    pos++;
+                    scan = pos;
+                }
+                skipLf = false;
+            }
+            if (!skipLf) {
+                int i = ByteScanner.BEST.indexOfLineEnd(view, scan, limit);
+                if (i < limit) {
+                    lineStart = pos;
+                    lineEnd = i;
+                    pos = i + 1;
+                    skipLf = (buf[i] == '\r');
+                    return true;
+                }
+                scan = limit;
+            }
+            if (eof) {
+                skipLf = false;
+                if (pos < limit) {
+                    lineStart = pos;
+                    lineEnd = limit;
+                    pos = limit;
+                    return true;
+                }
+                return false;
+            }
+            scan -= fill();
+        }
+    }
+
+    @Override
+    public ByteBuffer buffer() {
+        return view;
+    }
+
+    @Override
+    public int lineStart() {
+        return lineStart;
+    }
+
+    @Override
+    public int lineEnd() {
+        return lineEnd;
+    }
+
+    /**
+     * Moves the unreturned bytes to the front (growing the buffer if a single line fills it)
+     * and reads more input.
+     * @return how far existing bytes were shifted left
+     */
+    private int fill() throws IOException {
+        int shift = pos;
+        if (shift > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buf.length) {
+            byte[] bigger = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, bigger, 0, limit);
+            buf = bigger;
+            view = ByteBuffer.wrap(buf);
+        }
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+        return shift;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
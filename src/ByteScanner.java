@@ -0,0 +1,73 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Finds delimiters in raw log bytes: line terminators for the readers, token separators for
+ * the parser.
+ *
+ * SCALAR checks one byte at a time and is the reference. SwarByteScanner tests 8 bytes per step
+ * in a long, VectorByteScanner a whole SIMD register per step through the incubating
+ * jdk.incubator.vector API. That module only exists when the JVM is started with
+ * --add-modules jdk.incubator.vector, so it is loaded by name and BEST falls back to SWAR
+ * without it. The -Dscanner=scalar|swar|vector system property forces one.
+ */
+interface ByteScanner {
+    /**
+     * @return the index of the first '\n' or '\r' in buf[from, to), or 'to' if there is none
+     */
+    int indexOfLineEnd(ByteBuffer buf, int from, int to);
+
+    /**
+     * @return the index of the first whitespace byte (' ' or '\t' .. '\r', as the regex \s)
+     *         in buf[from, to), or 'to' if there is none
+     */
+    int indexOfSpace(ByteBuffer buf, int from, int to);
+
+    ByteScanner SCALAR = new ByteScanner() {
+        @Override
+        public int indexOfLineEnd(ByteBuffer buf, int from, int to) {
+            for (int i = from; i < to; i++) {
+                byte b = buf.get(i);
+                if (b == '\n' || b == '\r') {
+                    return i;
+                }
+            }
+            return to;
+        }
+
+        @Override
+        public int indexOfSpace(ByteBuffer buf, int from, int to) {
+            for (int i = from; i < to; i++) {
+                byte b = buf.get(i);
+                if (b == ' ' || (b >= '\t' && b <= '\r')) {
+                    return i;
+                }
+            }
+            return to;
+        }
+
+        @Override
+        public String toString() {
+            return "scalar";
+        }
+    };
+
+    ByteScanner BEST = named(System.getProperty("scanner", "vector"));
+
+    /**
+     * The scanner called 'name' ("scalar", "swar" or "vector"); "vector" falls back to SWAR
+     * when the Vector API is not available.
+     */
+    static ByteScanner named(String name) {
+        if ("scalar".equals(name)) {
+            return SCALAR;
+        }
+        if ("vector".equals(name)) {
+            try {
+                return (ByteScanner) Class.forName("VectorByteScanner").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                //jdk.incubator.vector is not in the module graph
+            }
+        }
+        return new SwarByteScanner();
+    }
+}
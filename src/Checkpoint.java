@@ -0,0 +1,122 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Saves and restores the detector position in the input together with its state, so a
+ * restarted detector resumes where it stopped instead of replaying the whole log.
+ *
+ * File layout (DataOutputStream, big-endian): MAGIC, VERSION, the input's file key (device and
+ * inode) as text, the byte offset just past the last analyzed line, the last sequence number,
+ * then DetectorState.writeTo. Only the current rolling windows are stored, not past failures,
+ * so the size follows the number of distinct keys rather than the length of the log.
+ *
+ * A checkpoint is written to a temporary file and then renamed over the old one, so a crash
+ * while saving leaves the previous checkpoint intact.
+ *
+ * If the input was rotated since, the file the checkpoint was taken from is looked up by its
+ * file key among the input's siblings whose name starts with the input's (auth.log.1,
+ * secure-20260101), so the lines written to it after the checkpoint are still read.
+ */
+final class Checkpoint {
+    private static final int MAGIC = 0x4C444350; //"LDCP"
+    private static final int VERSION = 9;
+
+    //Where to resume
+    final long offset;
+    final long seq;
+
+    //The checkpointed file under its rotated name, to finish from rotatedOffset before reading
+    //the input from 0; null if the input is still that file or it was not found
+    final Path rotated;
+    final long rotatedOffset;
+
+    //True if the input was rotated but the old file was not found, so its lines after the
+    //checkpoint are not read
+    final boolean rotatedLost;
+
+    private Checkpoint(long offset, long seq, Path rotated, long rotatedOffset, boolean rotatedLost) {
+        this.offset = offset;
+        this.seq = seq;
+        this.rotated = rotated;
+        this.rotatedOffset = rotatedOffset;
+        this.rotatedLost = rotatedLost;
+    }
+
+    /**
+     * Restores 'state' from 'file' and works out where to resume reading 'input'.
+     * If the input is no longer the file the checkpoint was taken from (rotated), that file is
+     * finished first if it can be found and the input is read from 0. If the input is shorter
+     * than the saved offset (truncated), reading restarts at 0. The state is restored either way.
+     * @return the resume position, or null if there is no checkpoint (state left untouched)
+     */
+    static Checkpoint load(Path file, Path input, DetectorState state) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a checkpoint file (or an incompatible version): " + file);
+            }
+            String fileKey = in.readUTF();
+            long offset = in.readLong();
+            long seq = in.readLong();
+            state.readFrom(in);
+
+            if (fileKey.equals(fileKey(input))) {
+                boolean truncated = Files.size(input) < offset;
+                return new Checkpoint(truncated ? 0 : offset, seq, null, 0, false);
+            }
+            Path rotated = findRotated(input, fileKey, offset);
+            return new Checkpoint(0, seq, rotated, offset, rotated == null);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Atomically replaces 'file' with the current position and state.
+     */
+    static void save(Path file, String fileKey, long offset, long seq, DetectorState state) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(fileKey);
+            out.writeLong(offset);
+            out.writeLong(seq);
+            state.writeTo(out);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the uncompressed sibling of 'input' named like it whose file key is 'fileKey' and
+     *         that is at least 'offset' bytes long, or null if there is none
+     */
+    private static Path findRotated(Path input, String fileKey, long offset) throws IOException {
+        Path dir = input.toAbsolutePath().getParent();
+        String name = input.getFileName().toString();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                if (entry.getFileName().toString().startsWith(name) && !LogFiles.isCompressed(entry)
+                        && Files.isRegularFile(entry) && fileKey.equals(fileKey(entry)) && Files.size(entry) >= offset) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same text as TailLineReader.fileKey() for the file 'input' names right now.
+     */
+    static String fileKey(Path input) throws IOException {
+        return String.valueOf(Files.readAttributes(input, BasicFileAttributes.class).fileKey());
+    }
+}
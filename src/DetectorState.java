@@ -0,0 +1,544 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Detection state and rules, fed one event at a time.
+ *
+ * Users and IPs are interned into dense ids by the 'users' and 'ips' symbol tables, and all
+ * per-key state lives in off-heap slots indexed by those ids (IpStore, DistinctCounts,
+ * OffHeapSlots), so the number of keys does not add to the objects the garbage collector
+ * traces. Times are epoch seconds (UTC).
+ *
+ * Every event carries a sequence number giving its position in the whole input. The sequential
+ * reader feeds events in that order. The parallel mode feeds each IP's and each user's events
+ * in order but interleaves different keys freely, so flags remember the sequence number that
+ * raised them and the report is ordered by it rather than by arrival.
+ *
+ * With evictIdle(), keys that have had no event for a while are dropped through a TimingWheel
+ * per key kind and their ids recycled, so a long-running detector holds only recently active
+ * keys. Flagged keys keep what the report shows.
+ *
+ * With sketchUsers(), rule 2 counts users below USER_FAIL_THRESHOLD in a fixed-size UserSketch
+ * instead of per-user slots, so a spray of millions of distinct names costs no memory per name.
+ * A user enters the dictionary only when its estimate reaches the threshold; from then on its
+ * total is counted exactly in userStates, starting from that estimate. Estimates never fall
+ * short, so every user exact mode flags is flagged at the same failure or earlier; a user may be
+ * flagged early, or wrongly, by at most the sketch's error bound. Rule 5 only has slots for
+ * users in the dictionary, so a user's distinct IPs are counted from its rule 2 flag on.
+ */
+final class DetectorState {
+    // Detection rules
+    static final int IP_FAIL_THRESHOLD = 5; //>= 5 fails
+    static final int WINDOW_MINUTES = 10; //... within 10 minutes
+    static final int USER_FAIL_THRESHOLD = 8; //>= 8 total fails for user
+    static final int SPRAY_USER_THRESHOLD = 20; //>= 20 distinct users failing from one IP
+    static final int STUFFING_IP_THRESHOLD = 20; //>= 20 distinct IPs failing for one user
+
+    //A failure leaves the window once it is more than WINDOW_MINUTES whole minutes old
+    static final int WINDOW_SPAN_SECONDS = (WINDOW_MINUTES + 1) * 60;
+
+    //Shortest idle time for eviction: an IP idle this long has an empty window anyway
+    static final long MIN_IDLE_SECONDS = WINDOW_SPAN_SECONDS;
+
+    //Name <-> id dictionaries; IPs are keyed by their packed binary address
+    final SymbolTable users = new SymbolTable();
+    final IpTable ips = new IpTable();
+
+    //Per-IP window, best window and flag, indexed by IP id
+    final IpStore ipStates;
+
+    //Per user id: total FAILED_LOGIN and the sequence number that flagged it (0 = not flagged)
+    private static final int USER_FAILS = 0;
+    private static final int USER_FLAG_SEQ = 8;
+    private final OffHeapSlots userStates = new OffHeapSlots(16);
+
+    //Distinct users failing per IP id and distinct IPs failing per user id, with their flags
+    final DistinctCounts usersPerIp = new DistinctCounts();
+    final DistinctCounts ipsPerUser = new DistinctCounts();
+
+    //If a flagged IP later has SUCCESS_LOGIN, add here
+    final List<String> possibleCompromises = new ArrayList<>();
+
+    //Track how many lines were skipped (not valid log lines) and why
+    final LineCounts lines = new LineCounts();
+
+    //Told about each flag as it is raised; null = nobody listening
+    AlertListener listener;
+
+    //Idle-key eviction, null = keys are kept forever
+    private TimingWheel idleIps;
+    private TimingWheel idleUsers;
+    private final IntConsumer ipExpiry = this::evictIp;
+    private final IntConsumer userExpiry = this::evictUser;
+    long evictedIps;
+    long evictedUsers;
+
+    //Rule 2 counts of users not yet flagged, null = every user has exact slots
+    private UserSketch userSketch;
+
+    DetectorState() {
+        this(new ExactIpStore());
+    }
+
+    /**
+     * @param ipStates the rule 1 window representation, see IpStore
+     */
+    DetectorState(IpStore ipStates) {
+        this.ipStates = ipStates;
+    }
+
+    /**
+     * Receives detections as they happen, for alerting before the report is written.
+     */
+    interface AlertListener {
+        void ipFlagged(int ip);
+
+        void userFlagged(int user, int totalFails);
+
+        void possibleCompromise(String message);
+
+        void passwordSpray(int ip, int distinctUsers);
+
+        void credentialStuffing(int user, int distinctIps);
+    }
+
+    /**
+     * Drops the state of IPs and users that have had no event for 'seconds' (at least
+     * MIN_IDLE_SECONDS) of event time, and frees their ids. Rule 1 and rule 3 are unaffected. A
+     * user's failure total restarts after an idle gap unless the user is already flagged, so
+     * rule 2 only counts failures less than 'seconds' apart; distinct counts of rules 4 and 5
+     * restart the same way. Flagged IPs keep their flags and best window, flagged users their
+     * total. Events must be fed in time order (not --parallel).
+     * Must be called before any event.
+     */
+    void evictIdle(long seconds) {
+        idleIps = new TimingWheel(seconds);
+        idleUsers = new TimingWheel(seconds);
+    }
+
+    /**
+     * Counts users in a UserSketch of at most 'budgetBytes' until they are flagged, see above.
+     * Events must be fed as bytes (the failed and success overloads taking a buffer), not as
+     * user ids. Must be called before any event.
+     */
+    void sketchUsers(long budgetBytes) {
+        userSketch = new UserSketch(budgetBytes);
+    }
+
+    /**
+     * @return the user sketch, or null if users are counted exactly
+     */
+    UserSketch userSketch() {
+        return userSketch;
+    }
+
+    /**
+     * Applies one FAILED_LOGIN of user buf[userStart, userEnd) from IP buf[ipStart, ipEnd).
+     */
+    void failed(long seq, long time, ByteBuffer buf, int userStart, int userEnd, int ipStart, int ipEnd) {
+        int ip = ips.intern(buf, ipStart, ipEnd);
+        if (userSketch == null) {
+            failed(seq, time, users.intern(buf, userStart, userEnd), ip);
+            return;
+        }
+        int user = users.find(buf, userStart, userEnd);
+        long userHash = (user >= 0) ? users.fingerprint(user) : SymbolTable.fingerprint(buf, userStart, userEnd);
+        if (idleIps != null) {
+            touch(time, user, ip);
+        }
+        ipFailure(seq, time, ip);
+        if (user >= 0) {
+            userFailure(user, seq); //already flagged: counted exactly
+        } else {
+            int estimate = userSketch.add(userHash);
+            if (estimate >= USER_FAIL_THRESHOLD) {
+                user = users.intern(buf, userStart, userEnd);
+                userStates.ensure(user);
+                userStates.putInt(user, USER_FAILS, estimate);
+                userStates.putLong(user, USER_FLAG_SEQ, seq);
+                if (listener != null) {
+                    listener.userFlagged(user, estimate);
+                }
+            }
+        }
+        sprayFailure(seq, ip, userHash);
+        if (user >= 0) {
+            stuffingFailure(seq, user, ip); //only users in the dictionary have slots
+        }
+    }
+
+    /**
+     * Applies one SUCCESS_LOGIN of user buf[userStart, userEnd) from IP buf[ipStart, ipEnd).
+     * Must only be called once every failure before 'seq' has been applied.
+     */
+    void success(long seq, long time, ByteBuffer buf, int userStart, int userEnd, int ipStart, int ipEnd) {
+        int ip = ips.intern(buf, ipStart, ipEnd);
+        if (userSketch == null) {
+            success(seq, time, users.intern(buf, userStart, userEnd), ip);
+            return;
+        }
+        if (idleIps != null) {
+            touch(time, users.find(buf, userStart, userEnd), ip);
+        }
+        if (afterBruteForce(seq, ip)) {
+            //The name is decoded only for the report, and never interned
+            byte[] name = new byte[userEnd - userStart];
+            buf.get(userStart, name);
+            compromise(time, new String(name, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Applies one FAILED_LOGIN to both the IP and the user rules.
+     */
+    void failed(long seq, long time, int user, int ip) {
+        if (idleIps != null) {
+            touch(time, user, ip);
+        }
+        ipFailure(seq, time, ip);
+        userFailure(user, seq);
+        sprayFailure(seq, ip, users.fingerprint(user));
+        stuffingFailure(seq, user, ip);
+    }
+
+    /**
+     * Rule 1: Brute force by IP. Failures of one IP must arrive in sequence order.
+     */
+    void ipFailure(long seq, long time, int ip) {
+        boolean wasFlagged = ipStates.flagged(ip);
+        ipStates.failure(ip, seq, time);
+        if (!wasFlagged && ipStates.flagged(ip) && listener != null) {
+            listener.ipFlagged(ip);
+        }
+    }
+
+    /**
+     * Rule 2: Target account by username total.
+     */
+    void userFailure(int user, long seq) {
+        userStates.ensure(user);
+        int newTotal = userStates.getInt(user, USER_FAILS) + 1;
+        userStates.putInt(user, USER_FAILS, newTotal);
+
+        if (newTotal == USER_FAIL_THRESHOLD) {
+            userStates.putLong(user, USER_FLAG_SEQ, seq);
+            if (listener != null) {
+                listener.userFlagged(user, newTotal);
+            }
+        }
+    }
+
+    /**
+     * Rule 2 for a batch: adds 'count' failures for 'user' at once. 'firstSeqs' holds the
+     * sequence numbers of the first min(count, USER_FAIL_THRESHOLD) of them, in order.
+     */
+    void userFailures(int user, int count, long[] firstSeqs) {
+        userStates.ensure(user);
+        int prevTotal = userStates.getInt(user, USER_FAILS);
+        int newTotal = prevTotal + count;
+        userStates.putInt(user, USER_FAILS, newTotal);
+
+        if (prevTotal < USER_FAIL_THRESHOLD && newTotal >= USER_FAIL_THRESHOLD) {
+            userStates.putLong(user, USER_FLAG_SEQ, firstSeqs[USER_FAIL_THRESHOLD - prevTotal - 1]);
+            if (listener != null) {
+                listener.userFlagged(user, newTotal);
+            }
+        }
+    }
+
+    /**
+     * Rule 4: Password spray, many distinct users failing from one IP. 'userHash' is
+     * SymbolTable.fingerprint of the user name, so the user need not be in the dictionary.
+     */
+    void sprayFailure(long seq, int ip, long userHash) {
+        int distinctUsers = usersPerIp.add(ip, userHash);
+        if (distinctUsers >= SPRAY_USER_THRESHOLD && !usersPerIp.flagged(ip)) {
+            usersPerIp.flag(ip, seq);
+            if (listener != null) {
+                listener.passwordSpray(ip, distinctUsers);
+            }
+        }
+    }
+
+    /**
+     * Rule 5: Credential stuffing, one user failing from many distinct IPs.
+     */
+    void stuffingFailure(long seq, int user, int ip) {
+        int distinctIps = ipsPerUser.add(user, ips.fingerprint(ip));
+        if (distinctIps >= STUFFING_IP_THRESHOLD && !ipsPerUser.flagged(user)) {
+            ipsPerUser.flag(user, seq);
+            if (listener != null) {
+                listener.credentialStuffing(user, distinctIps);
+            }
+        }
+    }
+
+    /**
+     * Rule 3: Success after a brute force pattern.
+     * Must only be called once every failure before 'seq' has been applied.
+     */
+    void success(long seq, long time, int user, int ip) {
+        if (idleIps != null) {
+            touch(time, user, ip);
+        }
+        if (afterBruteForce(seq, ip)) {
+            compromise(time, users.name(user));
+        }
+    }
+
+    /**
+     * @return true if 'ip' was flagged before 'seq'; a success then can be high risk
+     */
+    private boolean afterBruteForce(long seq, int ip) {
+        long flagSeq = ipStates.flagSeq(ip);
+        return flagSeq != 0 && flagSeq < seq;
+    }
+
+    private void compromise(long time, String user) {
+        String message = "Possible Compomise: time=" + toDateTime(time) + " user=" + user + " (success after brute-force pattern)";
+        possibleCompromises.add(message);
+        if (listener != null) {
+            listener.possibleCompromise(message);
+        }
+    }
+
+    /**
+     * Flagged IP ids in the order they were flagged.
+     */
+    int[] flaggedIps() {
+        return inFlagOrder(ips.size(), ipStates::flagSeq);
+    }
+
+    /**
+     * Flagged user ids in the order they were flagged.
+     */
+    int[] flaggedUsers() {
+        return inFlagOrder(users.size(), this::userFlagSeq);
+    }
+
+    /**
+     * IP ids flagged by rule 4 in the order they were flagged.
+     */
+    int[] sprayingIps() {
+        return inFlagOrder(ips.size(), usersPerIp::flagSeq);
+    }
+
+    /**
+     * User ids flagged by rule 5 in the order they were flagged.
+     */
+    int[] stuffedUsers() {
+        return inFlagOrder(users.size(), ipsPerUser::flagSeq);
+    }
+
+    /**
+     * Total FAILED_LOGIN of 'user'.
+     */
+    int failedCount(int user) {
+        return (user < userStates.capacity()) ? userStates.getInt(user, USER_FAILS) : 0;
+    }
+
+    /**
+     * @return the direct memory held by the dictionaries and per-key state, in bytes
+     */
+    long offHeapBytes() {
+        long bytes = users.bytes() + ips.bytes() + ipStates.bytes() + userStates.bytes()
+                + usersPerIp.bytes() + ipsPerUser.bytes();
+        if (idleIps != null) {
+            bytes += idleIps.bytes() + idleUsers.bytes();
+        }
+        if (userSketch != null) {
+            bytes += userSketch.bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Marks 'user' and 'ip' active at 'time', then evicts whatever has been idle too long. The
+     * two keys of the event are touched first, so they are never the ones evicted. A user not in
+     * the dictionary (-1, counted in the sketch) has nothing to touch.
+     */
+    private void touch(long time, int user, int ip) {
+        idleIps.touch(ip, time);
+        if (user >= 0) {
+            idleUsers.touch(user, time);
+        }
+        idleIps.advance(time, ipExpiry);
+        idleUsers.advance(time, userExpiry);
+    }
+
+    private void evictIp(int ip) {
+        if (ipStates.flagged(ip) || usersPerIp.flagged(ip)) {
+            //Reported: keep the flags and best window, free only the rolling window
+            ipStates.dropWindow(ip);
+            if (!usersPerIp.flagged(ip)) {
+                usersPerIp.remove(ip);
+            }
+            return;
+        }
+        ipStates.remove(ip);
+        usersPerIp.remove(ip);
+        ips.remove(ip);
+        evictedIps++;
+    }
+
+    private void evictUser(int user) {
+        if (userFlagSeq(user) != 0 || ipsPerUser.flagged(user)) {
+            //Reported with its total, which keeps counting; distinct IPs restart unless flagged
+            if (!ipsPerUser.flagged(user)) {
+                ipsPerUser.remove(user);
+            }
+            return;
+        }
+        if (user < userStates.capacity()) {
+            userStates.putInt(user, USER_FAILS, 0);
+        }
+        ipsPerUser.remove(user);
+        users.remove(user);
+        evictedUsers++;
+    }
+
+    private long userFlagSeq(int user) {
+        return (user < userStates.capacity()) ? userStates.getLong(user, USER_FLAG_SEQ) : 0;
+    }
+
+    /**
+     * Collects the ids in 0 .. count - 1 with a non-zero flag sequence number, ordered by it.
+     * Only flagged ids take heap, so a report over millions of keys stays small.
+     */
+    private static int[] inFlagOrder(int count, IntToLongFunction flagSeqOf) {
+        long[] order = new long[16];
+        int n = 0;
+        for (int id = 0; id < count; id++) {
+            long seq = flagSeqOf.applyAsLong(id);
+            if (seq != 0) {
+                if (n == order.length) {
+                    order = Arrays.copyOf(order, n * 2);
+                }
+                order[n++] = seq;
+            }
+        }
+        //Sequence numbers are unique per event, so sorting them and mapping back is exact
+        order = Arrays.copyOf(order, n);
+        Arrays.sort(order);
+        int[] ids = new int[n];
+        for (int id = 0; id < count; id++) {
+            long seq = flagSeqOf.applyAsLong(id);
+            if (seq != 0) {
+                ids[Arrays.binarySearch(order, seq)] = id;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Writes the whole detector state, for a checkpoint.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        lines.writeTo(out);
+        users.writeTo(out);
+        ips.writeTo(out);
+        out.writeUTF(ipStates.name());
+        for (int ip = 0; ip < ips.size(); ip++) {
+            boolean known = ipStates.known(ip);
+            out.writeBoolean(known);
+            if (known) {
+                ipStates.writeTo(ip, out);
+            }
+        }
+        for (int user = 0; user < users.size(); user++) {
+            boolean known = user < userStates.capacity();
+            out.writeInt(known ? userStates.getInt(user, USER_FAILS) : 0);
+            out.writeLong(known ? userStates.getLong(user, USER_FLAG_SEQ) : 0);
+        }
+        out.writeInt(possibleCompromises.size());
+        for (String message : possibleCompromises) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        out.writeBoolean(idleIps != null);
+        if (idleIps != null) {
+            idleIps.writeTo(out, ips.size());
+            idleUsers.writeTo(out, users.size());
+        }
+        out.writeLong(evictedIps);
+        out.writeLong(evictedUsers);
+        out.writeInt(userSketch != null ? userSketch.width() : 0);
+        if (userSketch != null) {
+            userSketch.writeTo(out);
+        }
+        usersPerIp.writeTo(out, ips.size());
+        ipsPerUser.writeTo(out, users.size());
+    }
+
+    /**
+     * Restores state written by writeTo into this fresh instance.
+     */
+    void readFrom(DataInputStream in) throws IOException {
+        lines.readFrom(in);
+        users.readFrom(in);
+        ips.readFrom(in);
+        String window = in.readUTF();
+        if (!window.equals(ipStates.name())) {
+            throw new IOException("Checkpoint was saved with --window " + window);
+        }
+        for (int ip = 0; ip < ips.size(); ip++) {
+            if (in.readBoolean()) {
+                ipStates.readFrom(ip, in);
+            }
+        }
+        for (int user = 0; user < users.size(); user++) {
+            userStates.ensure(user);
+            userStates.putInt(user, USER_FAILS, in.readInt());
+            userStates.putLong(user, USER_FLAG_SEQ, in.readLong());
+        }
+        int compromises = in.readInt();
+        for (int i = 0; i < compromises; i++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            possibleCompromises.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        if (in.readBoolean()) {
+            if (idleIps != null) {
+                idleIps.readFrom(in, ips.size());
+                idleUsers.readFrom(in, users.size());
+            } else {
+                //Saved with eviction, resumed without: one clock and one time per id
+                in.skipNBytes(Long.BYTES * (2L + ips.size() + users.size()));
+            }
+        }
+        //Saved without eviction, resumed with it: keys are scheduled at their next event
+        evictedIps = in.readLong();
+        evictedUsers = in.readLong();
+        //Sketch counts cannot be converted to another width, nor back to exact totals
+        int sketchWidth = in.readInt();
+        if (sketchWidth != (userSketch != null ? userSketch.width() : 0)) {
+            throw new IOException((sketchWidth == 0) ? "Checkpoint was saved without --user-sketch"
+                    : "Checkpoint was saved with --user-sketch " + ((long) sketchWidth * UserSketch.DEPTH * Integer.BYTES >> 10));
+        }
+        if (userSketch != null) {
+            userSketch.readFrom(in);
+        }
+        usersPerIp.readFrom(in, ips.size());
+        ipsPerUser.readFrom(in, users.size());
+    }
+
+    /**
+     * Epoch seconds back to the LocalDateTime the report prints.
+     */
+    static LocalDateTime toDateTime(long time) {
+        return LocalDateTime.ofEpochSecond(time, 0, ZoneOffset.UTC);
+    }
+}
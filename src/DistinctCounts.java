@@ -0,0 +1,342 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Approximate number of distinct elements per key id, off the Java heap: a HyperLogLog per key,
+ * with sparse forms for small keys. Used for distinct users per IP (password spray) and distinct
+ * IPs per user (credential stuffing).
+ *
+ * Elements are given as 64-bit fingerprints (SymbolTable.fingerprint of a name, or a packed
+ * address) and mixed into a 32-bit hash. A key goes through three forms, each used until it fills
+ * up:
+ * - inline: up to SPARSE hashes in the key's own slot, counted exactly
+ * - set: up to SET_LIMIT hashes in an open-addressing table in a block of a shared pool,
+ *   counted exactly
+ * - dense: REGISTERS one-byte registers in that same block. The top P bits of a hash pick the
+ *   register, which keeps the highest rank (leading zeros of the other bits, plus one) seen.
+ *   The relative standard error is 1.04 / sqrt(REGISTERS), about 3%; small estimates use linear
+ *   counting
+ * Counts up to SET_LIMIT are thus exact unless two of a key's elements share a 32-bit hash, which
+ * for n elements has probability about n^2 / 2^33: one in 20 million at 20 elements, one in
+ * 230,000 at SET_LIMIT. That takes well-mixed fingerprints: a 31-polynomial string hash would make
+ * names built from "Aa" and "BB" collide every time, here as in the dictionaries' index, which is
+ * why SymbolTable and IpTable key their index on a hash seeded per process. Fingerprints are not
+ * seeded, so counts and estimates are the same in every run and across a checkpoint. Most keys
+ * only ever see a few elements, so millions of keys cost SLOT_SIZE (24) bytes each and only busy
+ * keys hold a block; blocks of removed keys are reused.
+ *
+ * A dense block also keeps the number of zero registers, the sum of 2^-register (scaled to an
+ * exact long) and the estimate, updated as registers rise, so an estimate never scans the
+ * registers.
+ */
+final class DistinctCounts {
+    private static final int P = 10;
+    static final int REGISTERS = 1 << P;
+    static final int SPARSE = 3;
+    private static final int SET_CAPACITY = REGISTERS / Integer.BYTES;
+    static final int SET_LIMIT = SET_CAPACITY * 3 / 4;
+    private static final int MAX_RANK = Integer.SIZE - P + 1;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+    private static final double TWO_32 = 0x1p32;
+
+    //Per key: flag, number of hashes (inline up to SPARSE, then set) or DENSE, and either the
+    //inline hashes or the block
+    private static final int FLAG_SEQ = 0; //sequence number of the flagging event, 0 = not flagged
+    private static final int COUNT = 8;
+    private static final int HASHES = 12;
+    private static final int BLOCK = 12;
+    private static final int SLOT_SIZE = HASHES + SPARSE * Integer.BYTES;
+    private static final int DENSE = -1;
+
+    //Per block: dense bookkeeping, then the set entries or the registers
+    private static final int ZEROS = 0; //registers still zero
+    private static final int ESTIMATE = 4;
+    private static final int SUM = 8; //sum of 2^(MAX_RANK - register)
+    private static final int DATA = 16;
+
+    private final OffHeapSlots slots = new OffHeapSlots(SLOT_SIZE);
+    private final OffHeapSlots blocks = new OffHeapSlots(DATA + REGISTERS);
+    private int blockCount;
+    private int freeBlocks = -1; //first free block, chained through its first int; -1 = none
+    private final int[] moving = new int[SET_LIMIT + 1]; //hashes being moved to the next form
+
+    /**
+     * Adds the element 'fingerprint' to 'key'.
+     * @return the estimated number of distinct elements of 'key'
+     */
+    int add(int key, long fingerprint) {
+        slots.ensure(key);
+        int hash = (int) (mix(fingerprint) >>> 32);
+        addHash(key, (hash == 0) ? 1 : hash); //0 marks an empty set entry
+        return estimate(key);
+    }
+
+    /**
+     * @return the estimated number of distinct elements of 'key'
+     */
+    int estimate(int key) {
+        if (key >= slots.capacity()) {
+            return 0;
+        }
+        int count = slots.getInt(key, COUNT);
+        return (count == DENSE) ? blocks.getInt(slots.getInt(key, BLOCK), ESTIMATE) : count;
+    }
+
+    void flag(int key, long seq) {
+        slots.putLong(key, FLAG_SEQ, seq);
+    }
+
+    /**
+     * @return the sequence number that flagged 'key', 0 if it is not flagged
+     */
+    long flagSeq(int key) {
+        return (key < slots.capacity()) ? slots.getLong(key, FLAG_SEQ) : 0;
+    }
+
+    boolean flagged(int key) {
+        return flagSeq(key) != 0;
+    }
+
+    /**
+     * Forgets 'key', so its id can be given to another key.
+     */
+    void remove(int key) {
+        if (key >= slots.capacity()) {
+            return;
+        }
+        if (inBlock(slots.getInt(key, COUNT))) {
+            int block = slots.getInt(key, BLOCK);
+            blocks.putInt(block, 0, freeBlocks);
+            freeBlocks = block;
+        }
+        slots.putInt(key, COUNT, 0);
+        slots.putLong(key, FLAG_SEQ, 0);
+    }
+
+    /**
+     * @return the direct memory held, in bytes
+     */
+    long bytes() {
+        return slots.bytes() + blocks.bytes();
+    }
+
+    /**
+     * Writes the hashes or registers and the flag of every key below 'limit', for a checkpoint.
+     */
+    void writeTo(DataOutputStream out, int limit) throws IOException {
+        for (int key = 0; key < limit; key++) {
+            int count = (key < slots.capacity()) ? slots.getInt(key, COUNT) : 0;
+            out.writeInt(count);
+            if (count == DENSE) {
+                int block = slots.getInt(key, BLOCK);
+                for (int register = 0; register < REGISTERS; register++) {
+                    out.writeByte(blocks.getByte(block, DATA + register));
+                }
+            } else {
+                int n = collect(key, count);
+                for (int i = 0; i < n; i++) {
+                    out.writeInt(moving[i]);
+                }
+            }
+            out.writeLong(flagSeq(key));
+        }
+    }
+
+    /**
+     * Restores what writeTo wrote into this (empty) instance.
+     */
+    void readFrom(DataInputStream in, int limit) throws IOException {
+        for (int key = 0; key < limit; key++) {
+            int count = in.readInt();
+            if (count == DENSE) {
+                slots.ensure(key);
+                int block = newBlock();
+                dense(key, block);
+                for (int register = 0; register < REGISTERS; register++) {
+                    setRegister(block, register, in.readByte());
+                }
+                blocks.putInt(block, ESTIMATE, denseEstimate(block));
+            } else if (count > 0) {
+                slots.ensure(key);
+                for (int i = 0; i < count; i++) {
+                    addHash(key, in.readInt());
+                }
+            }
+            long seq = in.readLong();
+            if (seq != 0) {
+                slots.ensure(key);
+                slots.putLong(key, FLAG_SEQ, seq);
+            }
+        }
+    }
+
+    private void addHash(int key, int hash) {
+        int count = slots.getInt(key, COUNT);
+        if (count == DENSE) {
+            int block = slots.getInt(key, BLOCK);
+            if (raise(block, hash)) {
+                blocks.putInt(block, ESTIMATE, denseEstimate(block));
+            }
+            return;
+        }
+        if (count <= SPARSE) {
+            for (int i = 0; i < count; i++) {
+                if (slots.getInt(key, HASHES + i * Integer.BYTES) == hash) {
+                    return;
+                }
+            }
+            if (count < SPARSE) {
+                slots.putInt(key, HASHES + count * Integer.BYTES, hash);
+                slots.putInt(key, COUNT, count + 1);
+                return;
+            }
+            //Inline hashes full: move them to a set, whose block takes their place
+            int n = collect(key, count);
+            int block = newBlock();
+            for (int i = 0; i < n; i++) {
+                insert(block, moving[i]);
+            }
+            insert(block, hash);
+            slots.putInt(key, BLOCK, block);
+            slots.putInt(key, COUNT, count + 1);
+            return;
+        }
+        int block = slots.getInt(key, BLOCK);
+        if (!insert(block, hash)) {
+            return;
+        }
+        if (++count <= SET_LIMIT) {
+            slots.putInt(key, COUNT, count);
+            return;
+        }
+        //Set full: turn the block into registers
+        int n = collect(key, count);
+        for (int i = 0; i < DATA + REGISTERS; i += Long.BYTES) {
+            blocks.putLong(block, i, 0);
+        }
+        dense(key, block);
+        for (int i = 0; i < n; i++) {
+            raise(block, moving[i]);
+        }
+        blocks.putInt(block, ESTIMATE, denseEstimate(block));
+    }
+
+    private static boolean inBlock(int count) {
+        return count == DENSE || count > SPARSE;
+    }
+
+    /**
+     * Copies the 'count' hashes of an inline or set 'key' into 'moving'.
+     * @return how many were copied
+     */
+    private int collect(int key, int count) {
+        if (count <= SPARSE) {
+            for (int i = 0; i < count; i++) {
+                moving[i] = slots.getInt(key, HASHES + i * Integer.BYTES);
+            }
+            return count;
+        }
+        int block = slots.getInt(key, BLOCK);
+        int n = 0;
+        for (int i = 0; i < SET_CAPACITY && n < count; i++) {
+            int hash = blocks.getInt(block, DATA + i * Integer.BYTES);
+            if (hash != 0) {
+                moving[n++] = hash;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Adds 'hash' to the set in 'block'.
+     * @return false if it was there already
+     */
+    private boolean insert(int block, int hash) {
+        int mask = SET_CAPACITY - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int entry = blocks.getInt(block, DATA + i * Integer.BYTES);
+            if (entry == hash) {
+                return false;
+            }
+            if (entry == 0) {
+                blocks.putInt(block, DATA + i * Integer.BYTES, hash);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Makes 'key' dense over the (zeroed) registers of 'block'.
+     */
+    private void dense(int key, int block) {
+        slots.putInt(key, COUNT, DENSE);
+        slots.putInt(key, BLOCK, block);
+        blocks.putInt(block, ZEROS, REGISTERS);
+        blocks.putLong(block, SUM, (long) REGISTERS << MAX_RANK);
+    }
+
+    /**
+     * @return a block of all zero bytes
+     */
+    private int newBlock() {
+        int block;
+        if (freeBlocks >= 0) {
+            block = freeBlocks;
+            freeBlocks = blocks.getInt(block, 0);
+            for (int i = 0; i < DATA + REGISTERS; i += Long.BYTES) {
+                blocks.putLong(block, i, 0);
+            }
+        } else {
+            block = blockCount++;
+            blocks.ensure(block);
+        }
+        return block;
+    }
+
+    /**
+     * Records 'hash' in the registers of 'block'.
+     * @return true if a register rose, so the estimate may have changed
+     */
+    private boolean raise(int block, int hash) {
+        int register = hash >>> (Integer.SIZE - P);
+        int rank = Math.min(Integer.numberOfLeadingZeros(hash << P) + 1, MAX_RANK);
+        if (rank <= blocks.getByte(block, DATA + register)) {
+            return false;
+        }
+        setRegister(block, register, rank);
+        return true;
+    }
+
+    private void setRegister(int block, int register, int rank) {
+        int old = blocks.getByte(block, DATA + register);
+        blocks.putByte(block, DATA + register, (byte) rank);
+        if (old == 0 && rank != 0) {
+            blocks.putInt(block, ZEROS, blocks.getInt(block, ZEROS) - 1);
+        }
+        blocks.putLong(block, SUM, blocks.getLong(block, SUM) + (1L << (MAX_RANK - rank)) - (1L << (MAX_RANK - old)));
+    }
+
+    private int denseEstimate(int block) {
+        double sum = (double) blocks.getLong(block, SUM) / (1L << MAX_RANK);
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        int zeros = blocks.getInt(block, ZEROS);
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            //Small range: linear counting over the zero registers
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        } else if (estimate > TWO_32 / 30) {
+            //Large range: correct for collisions of the 32-bit hashes
+            estimate = -TWO_32 * Math.log(1 - estimate / TWO_32);
+        }
+        return (int) Math.round(estimate);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
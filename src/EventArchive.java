@@ -0,0 +1,244 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact binary form of a log for repeated analysis: parse the text once with convert(),
+ * then analyze() reads the events straight from memory-mapped columns, with no text parsing.
+ *
+ * Only FAILED_LOGIN and SUCCESS_LOGIN events are stored, in log order. Rejected lines and
+ * unknown event types are kept as counts, so the report is the same as for the text log.
+ *
+ * Layout (big-endian):
+ * - header: MAGIC, VERSION, event count, times column length, footer offset
+ * - times: epoch second of each event as the zigzag varint delta from the previous one
+ *   (the first from 0); consecutive lines are usually 0-2 bytes apart
+ * - types: one byte per event (EventParser.TYPE_FAILED / TYPE_SUCCESS)
+ * - users, ips: one int per event, the id in the dictionaries below
+ * - footer: LineCounts, then the user and ip dictionaries (SymbolTable / IpTable writeTo)
+ */
+final class EventArchive {
+    private static final int MAGIC = 0x4C444541; //"LDEA"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+
+    //Columns are mapped a window at a time, so they may exceed the 2 GB mapping limit
+    private static final long WINDOW_SIZE = 1L << 28;
+
+    private EventArchive() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * @return true if 'file' starts with the archive MAGIC
+     */
+    static boolean isArchive(Path file) throws IOException {
+        if (!Files.isRegularFile(file) || Files.size(file) < HEADER_SIZE) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            return in.readInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Parses every line of 'reader' as 'format' and writes the events to 'archive'. Each column is spooled
+     * to a temporary file next to the archive, so memory use does not grow with the log.
+     * @return the number of events written
+     */
+    static long convert(LineSource reader, LogFormat format, Path archive) throws IOException {
+        SymbolTable users = new SymbolTable();
+        IpTable ips = new IpTable();
+        LineCounts lines = new LineCounts();
+        EventParser parser = format.newParser();
+
+        Path[] spools = new Path[4];
+        DataOutputStream[] columns = new DataOutputStream[4];
+        long events = 0;
+        try {
+            for (int c = 0; c < columns.length; c++) {
+                spools[c] = Files.createTempFile(archive.toAbsolutePath().getParent(), "column", ".tmp");
+                columns[c] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spools[c]), 1 << 16));
+            }
+            DataOutputStream times = columns[0];
+            long previousTime = 0;
+            while (reader.next()) {
+                ByteBuffer buf = reader.buffer();
+                int result = parser.parse(buf, reader.lineStart(), reader.lineEnd());
+                if (result != EventParser.OK) {
+                    lines.rejected[result]++;
+                    continue;
+                }
+                if (parser.type == EventParser.TYPE_OTHER) {
+                    lines.unknownTypes++;
+                    continue;
+                }
+                writeVarLong(times, zigzag(parser.epochSecond - previousTime));
+                previousTime = parser.epochSecond;
+                columns[1].writeByte(parser.type);
+                columns[2].writeInt(users.intern(buf, parser.userStart, parser.userEnd));
+                columns[3].writeInt(ips.intern(buf, parser.ipStart, parser.ipEnd));
+                events++;
+            }
+            for (DataOutputStream column : columns) {
+                column.close();
+            }
+
+            try (FileChannel out = FileChannel.open(archive, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                long timesLength = Files.size(spools[0]);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putLong(events).putLong(timesLength)
+                        .putLong(HEADER_SIZE + timesLength + events * 9).flip();
+                while (header.hasRemaining()) {
+                    out.write(header);
+                }
+                for (Path spool : spools) {
+                    try (FileChannel in = FileChannel.open(spool, StandardOpenOption.READ)) {
+                        long size = in.size();
+                        for (long done = 0; done < size; ) {
+                            done += in.transferTo(done, size - done, out);
+                        }
+                    }
+                }
+                OutputStream footerOut = Channels.newOutputStream(out);
+                DataOutputStream footer = new DataOutputStream(new BufferedOutputStream(footerOut));
+                lines.writeTo(footer);
+                users.writeTo(footer);
+                ips.writeTo(footer);
+                footer.flush();
+            }
+        } finally {
+            for (int c = 0; c < columns.length; c++) {
+                if (columns[c] != null) {
+                    columns[c].close();
+                }
+                if (spools[c] != null) {
+                    Files.deleteIfExists(spools[c]);
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Applies every event of 'archive' to 'state', which must be new: the archive's
+     * dictionaries are loaded as-is, so its ids become the state's ids.
+     * Sequence numbers are event numbers, which keep the order of the original lines.
+     */
+    static void analyze(Path archive, DetectorState state) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                //read the whole header
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not an event archive (or an incompatible version): " + archive);
+            }
+            long events = header.getLong();
+            long timesLength = header.getLong();
+            long footerOffset = header.getLong();
+
+            InputStream footerIn = Channels.newInputStream(channel.position(footerOffset));
+            DataInputStream footer = new DataInputStream(new BufferedInputStream(footerIn));
+            state.lines.readFrom(footer);
+            state.users.readFrom(footer);
+            state.ips.readFrom(footer);
+
+            long typesOffset = HEADER_SIZE + timesLength;
+            Column times = new Column(channel, HEADER_SIZE, typesOffset);
+            Column types = new Column(channel, typesOffset, typesOffset + events);
+            Column users = new Column(channel, typesOffset + events, typesOffset + events * 5);
+            Column ips = new Column(channel, typesOffset + events * 5, footerOffset);
+
+            long time = 0;
+            for (long event = 1; event <= events; event++) {
+                time += unzigzag(times.varLong());
+                byte type = types.get();
+                int user = users.getInt();
+                int ip = ips.getInt();
+                if (type == EventParser.TYPE_FAILED) {
+                    state.failed(event, time, user, ip);
+                } else {
+                    state.success(event, time, user, ip);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sequential reader over one column, mapping WINDOW_SIZE bytes at a time.
+     */
+    private static final class Column {
+        private final FileChannel channel;
+        private final long end;
+        private long windowBase;
+        private ByteBuffer window = ByteBuffer.allocate(0); //mapped on first use
+
+        Column(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.end = end;
+            this.windowBase = start;
+        }
+
+        byte get() throws IOException {
+            if (!window.hasRemaining()) {
+                map(windowBase + window.limit());
+            }
+            return window.get();
+        }
+
+        int getInt() throws IOException {
+            if (window.remaining() < Integer.BYTES) {
+                map(windowBase + window.position());
+            }
+            return window.getInt();
+        }
+
+        long varLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        private void map(long offset) throws IOException {
+            if (offset >= end) {
+                throw new IOException("Event archive is truncated");
+            }
+            windowBase = offset;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, end - offset));
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,245 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parser for one line of some LogFormat, producing the event representation all rules use.
+ *
+ * A successful parse() leaves the event in the fields below: epoch second (UTC), type code and
+ * user / ip as [start, end) offsets into the parsed buffer, so no String is created while
+ * scanning. A line that is not an event is reported as a reason code rather than an exception.
+ * Parsers may keep caches between lines, so each thread needs its own.
+ *
+ * Also holds the byte-level helpers the formats share.
+ */
+abstract class EventParser {
+    //Event type codes
+    static final byte TYPE_OTHER = 0;
+    static final byte TYPE_FAILED = 1;
+    static final byte TYPE_SUCCESS = 2;
+
+    //parse() results: OK or the reason the line was rejected
+    static final int OK = 0;
+    static final int SHORT_LINE = 1;
+    static final int BAD_TIMESTAMP = 2;
+    static final int MISSING_USER = 3;
+    static final int MISSING_IP = 4;
+    static final int NOT_LOGIN = 5; //well formed, but not a login event; not malformed
+    static final int REJECT_REASONS = 6; //number of codes above, OK included
+
+    private static final String[] REASON_NAMES = {"ok", "short line", "bad timestamp", "missing user=", "missing ip=", "not a login event"};
+
+    //Returned by the timestamp decoders for an invalid timestamp
+    static final long INVALID_TIME = Long.MIN_VALUE;
+
+    //Event type tokens as big-endian words: FAILED_LOGIN = "FAILED_L" + "OGIN",
+    //SUCCESS_LOGIN = "SUCCESS_" + "LOGI" + 'N'
+    private static final long FAILED_HEAD = word("FAILED_L");
+    private static final int FAILED_TAIL = (int) word("OGIN");
+    private static final long SUCCESS_HEAD = word("SUCCESS_");
+    private static final int SUCCESS_TAIL = (int) word("LOGI");
+
+    //Results of the last successful parse(), valid until the next call
+    long epochSecond;
+    byte type;
+    int userStart;
+    int userEnd;
+    int ipStart;
+    int ipEnd;
+
+    /**
+     * Parses buf[start, end) as one log line.
+     * @return OK if the line is an event, with the results in the fields; otherwise the
+     *         reason it is not (SHORT_LINE .. NOT_LOGIN)
+     */
+    abstract int parse(ByteBuffer buf, int start, int end);
+
+    /**
+     * Report label of a parse() result.
+     */
+    static String reasonName(int reason) {
+        return REASON_NAMES[reason];
+    }
+
+    /**
+     * Decodes the user slice of the last parsed line.
+     */
+    String user(ByteBuffer buf) {
+        return slice(buf, userStart, userEnd);
+    }
+
+    /**
+     * Decodes the ip slice of the last parsed line.
+     */
+    String ip(ByteBuffer buf) {
+        return slice(buf, ipStart, ipEnd);
+    }
+
+    static String slice(ByteBuffer buf, int start, int end) {
+        if (buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[end - start];
+        buf.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Maps an event type token (FAILED_LOGIN, SUCCESS_LOGIN) to its code by length and its
+     * first 8 bytes read as one word, then the remaining bytes; no byte-by-byte comparison
+     * against each name.
+     */
+    static byte eventType(ByteBuffer buf, int start, int end) {
+        switch (end - start) {
+            case 12:
+                if (buf.getLong(start) == FAILED_HEAD && buf.getInt(start + 8) == FAILED_TAIL) {
+                    return TYPE_FAILED;
+                }
+                return TYPE_OTHER;
+            case 13:
+                if (buf.getLong(start) == SUCCESS_HEAD && buf.getInt(start + 8) == SUCCESS_TAIL
+                        && buf.get(start + 12) == 'N') {
+                    return TYPE_SUCCESS;
+                }
+                return TYPE_OTHER;
+            default:
+                return TYPE_OTHER;
+        }
+    }
+
+    /**
+     * Decodes an RFC 3339 timestamp, "yyyy-MM-ddTHH:mm:ss[.fraction](Z|+hh:mm|-hh:mm)", to epoch
+     * seconds (UTC). The fraction is dropped. The offset may also be written +hhmm, as
+     * journalctl's short-iso output does.
+     * @return epoch seconds, or INVALID_TIME if buf[start, end) is not such a timestamp
+     */
+    static long rfc3339(ByteBuffer buf, int start, int end) {
+        if (end - start < 20) {
+            return INVALID_TIME;
+        }
+        byte t = buf.get(start + 10);
+        if (buf.get(start + 4) != '-' || buf.get(start + 7) != '-' || (t != 'T' && t != 't')
+                || buf.get(start + 13) != ':' || buf.get(start + 16) != ':') {
+            return INVALID_TIME;
+        }
+        int year = digits(buf, start, 4);
+        int month = digits(buf, start + 5, 2);
+        int day = digits(buf, start + 8, 2);
+        int hour = digits(buf, start + 11, 2);
+        int minute = digits(buf, start + 14, 2);
+        int second = digits(buf, start + 17, 2);
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return INVALID_TIME;
+        }
+
+        int pos = start + 19;
+        if (buf.get(pos) == '.') {
+            pos++;
+            int fractionStart = pos;
+            while (pos < end && buf.get(pos) >= '0' && buf.get(pos) <= '9') {
+                pos++;
+            }
+            if (pos == fractionStart) {
+                return INVALID_TIME;
+            }
+        }
+        int offsetSeconds;
+        if (pos == end - 1 && (buf.get(pos) == 'Z' || buf.get(pos) == 'z')) {
+            offsetSeconds = 0;
+        } else if (((pos == end - 6 && buf.get(pos + 3) == ':') || pos == end - 5) && (buf.get(pos) == '+' || buf.get(pos) == '-')) {
+            int offsetHours = digits(buf, pos + 1, 2);
+            int offsetMinutes = digits(buf, end - 2, 2);
+            if (offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59) {
+                return INVALID_TIME;
+            }
+            offsetSeconds = (offsetHours * 60 + offsetMinutes) * 60;
+            if (buf.get(pos) == '-') {
+                offsetSeconds = -offsetSeconds;
+            }
+        } else {
+            return INVALID_TIME;
+        }
+        //A leap second is counted as the last second of the minute
+        return epochDay(year, month, day) * 86400L + hour * 3600 + minute * 60 + Math.min(second, 59) - offsetSeconds;
+    }
+
+    /**
+     * Reads 'count' ASCII digits starting at 'pos'.
+     * @return the value, or -1 if any byte is not a digit
+     */
+    static int digits(ByteBuffer buf, int pos, int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            int d = buf.get(pos + i) - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Days since 1970-01-01 for a proleptic Gregorian date with year >= 1.
+     */
+    static long epochDay(int year, int month, int day) {
+        int y = (month <= 2) ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    //Same characters as the regex \s used by parseLine
+    static boolean isSpace(byte b) {
+        return b == ' ' || (b >= '\t' && b <= '\r');
+    }
+
+    static int skipSpaces(ByteBuffer buf, int pos, int end) {
+        while (pos < end && isSpace(buf.get(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    static boolean startsWith(ByteBuffer buf, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf.get(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    //Big-endian value of up to 8 ASCII characters, as ByteBuffer.getLong/getInt read them
+    static long word(String s) {
+        long value = 0;
+        for (byte b : ascii(s)) {
+            value = (value << 8) | (b & 0xFF);
+        }
+        return value;
+    }
+}
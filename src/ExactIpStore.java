@@ -0,0 +1,303 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Exact rolling windows: every failure time of the window is kept, so counts and window starts
+ * are exactly those of the original per-failure list.
+ *
+ * The rolling window is a ring of (epoch second, count) entries in arrival order, one per distinct
+ * second, so a burst within one second costs one entry. A time expires once it is more than
+ * WINDOW_MINUTES whole minutes older than the failure being added, as in the original
+ * pruneOldTimes, which for time-ordered input bounds a ring to 660 entries. In order, the expired
+ * times are the oldest entries and are popped from the head. Once an IP gets a failure older than
+ * its newest entry, the ring also tracks its lowest time, and when that expires every entry is
+ * checked and the survivors are packed in order, so out-of-order input (several files without
+ * --reorder) counts exactly what the original list did. Rings live in size classes of 4, 8, 16,
+ * ... entries, one OffHeapSlots per class, and move to the next class when full. Freed rings are
+ * chained through their first bytes and reused. An IP whose window was dropped (idle eviction)
+ * has no ring until its next failure.
+ */
+final class ExactIpStore extends IpStore {
+    //Window fields of the IP slot, after the header
+    private static final int WINDOW = HEADER_SIZE; //failures in the window
+    private static final int RING = HEADER_SIZE + 4; //ring index in its class
+    private static final int RING_CLASS = HEADER_SIZE + 8; //class + 1, 0 = no ring
+    private static final int HEAD = HEADER_SIZE + 12; //first ring entry
+    private static final int ENTRIES = HEADER_SIZE + 16; //ring entries in use
+    private static final int UNORDERED = HEADER_SIZE + 20; //1 if the ring is not in time order
+    private static final int LOWEST = HEADER_SIZE + 24; //lowest time, or lower, if UNORDERED
+    private static final int SLOT_SIZE = HEADER_SIZE + 32;
+
+    //Ring entry layout
+    private static final int ENTRY_TIME = 0;
+    private static final int ENTRY_COUNT = 8;
+    private static final int ENTRY_SIZE = 12;
+
+    private static final int MIN_RING_SHIFT = 2; //class 0 holds 4 entries
+    private static final int RING_CLASSES = 24;
+
+    private final OffHeapSlots[] rings = new OffHeapSlots[RING_CLASSES];
+    private final int[] ringsUsed = new int[RING_CLASSES]; //rings ever handed out per class
+    private final int[] freeRings = new int[RING_CLASSES]; //free list head per class, -1 = empty
+
+    ExactIpStore() {
+        super(SLOT_SIZE);
+        Arrays.fill(freeRings, -1);
+    }
+
+    @Override
+    String name() {
+        return "exact";
+    }
+
+    @Override
+    String accuracy() {
+        return "exact, every failure time kept";
+    }
+
+    @Override
+    long reach() {
+        return DetectorState.WINDOW_SPAN_SECONDS;
+    }
+
+    @Override
+    int addFailure(int ip, long time) {
+        append(ip, time);
+        int ringClass = slots.getInt(ip, RING_CLASS) - 1;
+        OffHeapSlots ring = rings[ringClass];
+        int index = slots.getInt(ip, RING);
+        int mask = (1 << (ringClass + MIN_RING_SHIFT)) - 1;
+        int head = slots.getInt(ip, HEAD);
+        int entries = slots.getInt(ip, ENTRIES);
+        int window = slots.getInt(ip, WINDOW);
+
+        //The entry just added never expires, so the loop stops there at the latest
+        while (expired(time, ring.getLong(index, head * ENTRY_SIZE + ENTRY_TIME))) {
+            window -= ring.getInt(index, head * ENTRY_SIZE + ENTRY_COUNT);
+            head = (head + 1) & mask;
+            entries--;
+        }
+        slots.putInt(ip, HEAD, head);
+        slots.putInt(ip, ENTRIES, entries);
+        slots.putInt(ip, WINDOW, window);
+        if (slots.getInt(ip, UNORDERED) != 0 && expired(time, slots.getLong(ip, LOWEST))) {
+            window = pack(ip, time);
+        }
+        return window;
+    }
+
+    /**
+     * Integer division truncates like Duration.toMinutes(), also for a 't' after 'newest'.
+     * @return true if 't' is out of the window of a failure at 'newest'
+     */
+    private static boolean expired(long newest, long t) {
+        return (newest - t) / 60 > DetectorState.WINDOW_MINUTES;
+    }
+
+    /**
+     * Drops every entry of an unordered ring that is out of the window of a failure at 'time',
+     * moving the others toward the head in order, and recomputes the lowest time.
+     * @return number of failures left in the window
+     */
+    private int pack(int ip, long time) {
+        int ringClass = slots.getInt(ip, RING_CLASS) - 1;
+        OffHeapSlots ring = rings[ringClass];
+        int index = slots.getInt(ip, RING);
+        int mask = (1 << (ringClass + MIN_RING_SHIFT)) - 1;
+        int head = slots.getInt(ip, HEAD);
+        int entries = slots.getInt(ip, ENTRIES);
+        int kept = 0;
+        int window = 0;
+        long lowest = Long.MAX_VALUE;
+        boolean ordered = true;
+        long last = Long.MIN_VALUE;
+        for (int e = 0; e < entries; e++) {
+            int from = ((head + e) & mask) * ENTRY_SIZE;
+            long t = ring.getLong(index, from + ENTRY_TIME);
+            if (expired(time, t)) {
+                continue;
+            }
+            int count = ring.getInt(index, from + ENTRY_COUNT);
+            int to = ((head + kept) & mask) * ENTRY_SIZE;
+            ring.putLong(index, to + ENTRY_TIME, t);
+            ring.putInt(index, to + ENTRY_COUNT, count);
+            kept++;
+            window += count;
+            lowest = Math.min(lowest, t);
+            ordered &= t >= last;
+            last = t;
+        }
+        slots.putInt(ip, ENTRIES, kept);
+        slots.putInt(ip, WINDOW, window);
+        slots.putInt(ip, UNORDERED, ordered ? 0 : 1);
+        slots.putLong(ip, LOWEST, lowest);
+        return window;
+    }
+
+    @Override
+    long windowStart(int ip) {
+        int ringClass = slots.getInt(ip, RING_CLASS) - 1;
+        return rings[ringClass].getLong(slots.getInt(ip, RING), slots.getInt(ip, HEAD) * ENTRY_SIZE + ENTRY_TIME);
+    }
+
+    @Override
+    boolean hasWindow(int ip) {
+        return slots.getInt(ip, RING_CLASS) != 0;
+    }
+
+    @Override
+    void clearWindow(int ip) {
+        int ringClass = slots.getInt(ip, RING_CLASS) - 1;
+        if (ringClass >= 0) {
+            freeRing(ringClass, slots.getInt(ip, RING));
+        }
+        slots.putInt(ip, RING, 0);
+        slots.putInt(ip, RING_CLASS, 0);
+        slots.putInt(ip, HEAD, 0);
+        slots.putInt(ip, ENTRIES, 0);
+        slots.putInt(ip, WINDOW, 0);
+        slots.putInt(ip, UNORDERED, 0);
+        slots.putLong(ip, LOWEST, 0);
+    }
+
+    @Override
+    void copyWindow(int ip, IpStore from, int fromIp) {
+        ExactIpStore other = (ExactIpStore) from;
+        int ringClass = other.slots.getInt(fromIp, RING_CLASS) - 1;
+        if (ringClass < 0) {
+            return;
+        }
+        OffHeapSlots ring = other.rings[ringClass];
+        int index = other.slots.getInt(fromIp, RING);
+        int head = other.slots.getInt(fromIp, HEAD);
+        int mask = (1 << (ringClass + MIN_RING_SHIFT)) - 1;
+        for (int e = 0; e < other.slots.getInt(fromIp, ENTRIES); e++) {
+            int offset = ((head + e) & mask) * ENTRY_SIZE;
+            long time = ring.getLong(index, offset + ENTRY_TIME);
+            for (int c = ring.getInt(index, offset + ENTRY_COUNT); c > 0; c--) {
+                append(ip, time);
+            }
+        }
+    }
+
+    /**
+     * @return the direct memory held by slots and rings, in bytes
+     */
+    @Override
+    long bytes() {
+        long bytes = super.bytes();
+        for (OffHeapSlots ring : rings) {
+            if (ring != null) {
+                bytes += ring.bytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the window as one time per failure, in arrival order.
+     */
+    @Override
+    void writeWindow(int ip, DataOutputStream out) throws IOException {
+        int ringClass = slots.getInt(ip, RING_CLASS) - 1;
+        int index = slots.getInt(ip, RING);
+        int head = slots.getInt(ip, HEAD);
+        out.writeInt(slots.getInt(ip, WINDOW));
+        for (int e = 0; e < slots.getInt(ip, ENTRIES); e++) {
+            OffHeapSlots ring = rings[ringClass];
+            int mask = (1 << (ringClass + MIN_RING_SHIFT)) - 1;
+            int offset = ((head + e) & mask) * ENTRY_SIZE;
+            long time = ring.getLong(index, offset + ENTRY_TIME);
+            for (int c = ring.getInt(index, offset + ENTRY_COUNT); c > 0; c--) {
+                out.writeLong(time);
+            }
+        }
+    }
+
+    @Override
+    void readWindow(int ip, DataInputStream in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            append(ip, in.readLong());
+        }
+    }
+
+    /**
+     * Adds one failure at 'time' to the window of 'ip', without expiring anything.
+     */
+    private void append(int ip, long time) {
+        int ringClass = slots.getInt(ip, RING_CLASS) - 1;
+        if (ringClass < 0) {
+            ringClass = 0;
+            slots.putInt(ip, RING, allocateRing(ringClass));
+            slots.putInt(ip, RING_CLASS, ringClass + 1);
+        }
+        int index = slots.getInt(ip, RING);
+        int head = slots.getInt(ip, HEAD);
+        int entries = slots.getInt(ip, ENTRIES);
+        int mask = (1 << (ringClass + MIN_RING_SHIFT)) - 1;
+        slots.putInt(ip, WINDOW, slots.getInt(ip, WINDOW) + 1);
+
+        //Same second as the newest entry: count it there
+        if (entries > 0) {
+            int last = ((head + entries - 1) & mask) * ENTRY_SIZE;
+            OffHeapSlots ring = rings[ringClass];
+            long newest = ring.getLong(index, last + ENTRY_TIME);
+            if (newest == time) {
+                ring.putInt(index, last + ENTRY_COUNT, ring.getInt(index, last + ENTRY_COUNT) + 1);
+                return;
+            }
+            if (time < newest) {
+                //Out of order: an ordered ring's lowest time is its head
+                long lowest = (slots.getInt(ip, UNORDERED) != 0) ? slots.getLong(ip, LOWEST)
+                        : ring.getLong(index, head * ENTRY_SIZE + ENTRY_TIME);
+                slots.putInt(ip, UNORDERED, 1);
+                slots.putLong(ip, LOWEST, Math.min(lowest, time));
+            }
+        }
+        if (entries == mask + 1) {
+            //Full: move to a ring of the next class, oldest entry first
+            int bigger = allocateRing(ringClass + 1);
+            int firstPart = Math.min(entries, mask + 1 - head);
+            rings[ringClass].copyTo(index, head * ENTRY_SIZE, rings[ringClass + 1], bigger, 0, firstPart * ENTRY_SIZE);
+            rings[ringClass].copyTo(index, 0, rings[ringClass + 1], bigger, firstPart * ENTRY_SIZE,
+                    (entries - firstPart) * ENTRY_SIZE);
+            freeRing(ringClass, index);
+            ringClass++;
+            index = bigger;
+            head = 0;
+            mask = mask * 2 + 1;
+            slots.putInt(ip, RING, index);
+            slots.putInt(ip, RING_CLASS, ringClass + 1);
+            slots.putInt(ip, HEAD, head);
+        }
+        int offset = ((head + entries) & mask) * ENTRY_SIZE;
+        rings[ringClass].putLong(index, offset + ENTRY_TIME, time);
+        rings[ringClass].putInt(index, offset + ENTRY_COUNT, 1);
+        slots.putInt(ip, ENTRIES, entries + 1);
+    }
+
+    private int allocateRing(int ringClass) {
+        if (ringClass >= RING_CLASSES) {
+            throw new IllegalStateException("Window of one IP exceeds " + (1 << (RING_CLASSES + MIN_RING_SHIFT - 1)) + " distinct seconds");
+        }
+        if (rings[ringClass] == null) {
+            rings[ringClass] = new OffHeapSlots(ENTRY_SIZE << (ringClass + MIN_RING_SHIFT));
+        }
+        int index = freeRings[ringClass];
+        if (index >= 0) {
+            freeRings[ringClass] = rings[ringClass].getInt(index, 0);
+            return index;
+        }
+        index = ringsUsed[ringClass]++;
+        rings[ringClass].ensure(index);
+        return index;
+    }
+
+    private void freeRing(int ringClass, int index) {
+        rings[ringClass].putInt(index, 0, freeRings[ringClass]);
+        freeRings[ringClass] = index;
+    }
+}
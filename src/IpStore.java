@@ -0,0 +1,217 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Rule 1 state of every IP, kept off the Java heap so it adds no objects for the garbage
+ * collector to trace, however many IPs attack.
+ *
+ * Each IP id has a fixed-size slot in an OffHeapSlots. IP ids are dense (IpTable interns
+ * addresses with open addressing), so the id is the slot index and no second hash lookup is
+ * needed. The first HEADER_SIZE bytes of a slot hold the flag and best window, handled here; the
+ * rest holds the rolling window, whose representation is up to the subclass:
+ * - ExactIpStore keeps every failure time, so counts are exact (the default)
+ * - BucketedIpStore keeps counts per time bucket, in constant memory per IP
+ */
+abstract class IpStore {
+    //Slot header
+    private static final int FLAG_SEQ = 0; //sequence number of the flagging failure, 0 = not flagged
+    private static final int BEST_START = 8;
+    private static final int BEST_END = 16;
+    private static final int BEST_COUNT = 24;
+    static final int HEADER_SIZE = 28; //window fields start here
+
+    final OffHeapSlots slots;
+
+    IpStore(int slotSize) {
+        slots = new OffHeapSlots(slotSize);
+    }
+
+    /**
+     * The store selected by --window: "exact" or "bucketed".
+     * @return a new store, or null if 'name' is neither
+     */
+    static IpStore named(String name) {
+        if ("exact".equals(name)) {
+            return new ExactIpStore();
+        }
+        if ("bucketed".equals(name)) {
+            return new BucketedIpStore();
+        }
+        return null;
+    }
+
+    /**
+     * Rule 1: Brute force by IP. Adds a failure at 'time', drops the times that fall out of the
+     * window, updates the best window and flags the IP once the window reaches IP_FAIL_THRESHOLD.
+     * Failures of one IP must arrive in sequence order.
+     * @return number of failures in the window, including this one
+     */
+    int failure(int ip, long seq, long time) {
+        slots.ensure(ip);
+        int window = addFailure(ip, time);
+        if (window > slots.getInt(ip, BEST_COUNT)) {
+            slots.putInt(ip, BEST_COUNT, window);
+            slots.putLong(ip, BEST_START, windowStart(ip));
+            slots.putLong(ip, BEST_END, time);
+        }
+        if (window >= DetectorState.IP_FAIL_THRESHOLD && slots.getLong(ip, FLAG_SEQ) == 0) {
+            slots.putLong(ip, FLAG_SEQ, seq);
+        }
+        return window;
+    }
+
+    /**
+     * @return true if 'ip' has a window or is flagged
+     */
+    boolean known(int ip) {
+        return ip < slots.capacity() && (hasWindow(ip) || slots.getLong(ip, FLAG_SEQ) != 0);
+    }
+
+    /**
+     * Frees the rolling window of 'ip', keeping its best window and flag for the report. The
+     * window starts empty at the next failure.
+     */
+    void dropWindow(int ip) {
+        if (ip < slots.capacity()) {
+            clearWindow(ip);
+        }
+    }
+
+    /**
+     * Forgets 'ip' entirely, so its id can be given to another address.
+     */
+    void remove(int ip) {
+        if (ip >= slots.capacity()) {
+            return;
+        }
+        clearWindow(ip);
+        slots.putInt(ip, BEST_COUNT, 0);
+        slots.putLong(ip, BEST_START, 0);
+        slots.putLong(ip, BEST_END, 0);
+        slots.putLong(ip, FLAG_SEQ, 0);
+    }
+
+    /**
+     * Forgets the best window and flag of 'ip', keeping its rolling window.
+     */
+    void clearBest(int ip) {
+        slots.putInt(ip, BEST_COUNT, 0);
+        slots.putLong(ip, BEST_START, 0);
+        slots.putLong(ip, BEST_END, 0);
+        slots.putLong(ip, FLAG_SEQ, 0);
+    }
+
+    /**
+     * Continues 'ip' with 'fromIp' of 'from', a store of the same kind that has seen the later
+     * failures of the same address: takes its window, and its best window and flag unless this
+     * store has a larger window or an earlier flag.
+     */
+    void absorb(int ip, IpStore from, int fromIp) {
+        slots.ensure(ip);
+        if (from.bestCount(fromIp) > bestCount(ip)) {
+            slots.putInt(ip, BEST_COUNT, from.bestCount(fromIp));
+            slots.putLong(ip, BEST_START, from.bestStart(fromIp));
+            slots.putLong(ip, BEST_END, from.bestEnd(fromIp));
+        }
+        if (flagSeq(ip) == 0) {
+            slots.putLong(ip, FLAG_SEQ, from.flagSeq(fromIp));
+        }
+        clearWindow(ip);
+        copyWindow(ip, from, fromIp);
+    }
+
+    /**
+     * @return the sequence number that flagged 'ip', 0 if it is not flagged
+     */
+    long flagSeq(int ip) {
+        return (ip < slots.capacity()) ? slots.getLong(ip, FLAG_SEQ) : 0;
+    }
+
+    boolean flagged(int ip) {
+        return flagSeq(ip) != 0;
+    }
+
+    //Report friendly details for the largest window we observed
+    int bestCount(int ip) {
+        return slots.getInt(ip, BEST_COUNT);
+    }
+
+    long bestStart(int ip) {
+        return slots.getLong(ip, BEST_START);
+    }
+
+    long bestEnd(int ip) {
+        return slots.getLong(ip, BEST_END);
+    }
+
+    /**
+     * @return the direct memory held, in bytes
+     */
+    long bytes() {
+        return slots.bytes();
+    }
+
+    /**
+     * Writes the window, best window and flag of a known 'ip', for a checkpoint.
+     */
+    void writeTo(int ip, DataOutputStream out) throws IOException {
+        writeWindow(ip, out);
+        out.writeInt(bestCount(ip));
+        out.writeLong(bestStart(ip));
+        out.writeLong(bestEnd(ip));
+        out.writeLong(flagSeq(ip));
+    }
+
+    /**
+     * Restores the state of 'ip' written by writeTo.
+     */
+    void readFrom(int ip, DataInputStream in) throws IOException {
+        slots.ensure(ip);
+        readWindow(ip, in);
+        slots.putInt(ip, BEST_COUNT, in.readInt());
+        slots.putLong(ip, BEST_START, in.readLong());
+        slots.putLong(ip, BEST_END, in.readLong());
+        slots.putLong(ip, FLAG_SEQ, in.readLong());
+    }
+
+    /**
+     * The --window name of this representation.
+     */
+    abstract String name();
+
+    /**
+     * How exact the window counts are, for the report header.
+     */
+    abstract String accuracy();
+
+    /**
+     * Seconds after which a failure no longer matters: once a failure at least this much newer
+     * has been added, the window is the same as if the old one had never been.
+     */
+    abstract long reach();
+
+    /**
+     * Adds a failure at 'time' to the window of 'ip' and drops what has expired.
+     * @return number of failures in the window
+     */
+    abstract int addFailure(int ip, long time);
+
+    /**
+     * @return the time the current window of 'ip' starts
+     */
+    abstract long windowStart(int ip);
+
+    abstract boolean hasWindow(int ip);
+
+    abstract void clearWindow(int ip);
+
+    /**
+     * Sets the cleared window of 'ip' to the window of 'fromIp' in 'from', of the same class.
+     */
+    abstract void copyWindow(int ip, IpStore from, int fromIp);
+
+    abstract void writeWindow(int ip, DataOutputStream out) throws IOException;
+
+    abstract void readWindow(int ip, DataInputStream in) throws IOException;
+}
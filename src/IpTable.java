@@ -0,0 +1,442 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Interns ip= values into dense int ids, keyed by the packed binary address instead of text.
+ *
+ * Every key is 128 bits held in two longs. IPv6 addresses are stored as-is, IPv4 addresses as
+ * IPv4-mapped IPv6 (::ffff:a.b.c.d). A key costs 16 bytes plus its hash slot, against 50-80
+ * bytes for a String key, and nothing is allocated to look one up.
+ *
+ * Only text that formats back to exactly the same bytes is packed: dotted-quad IPv4 without
+ * leading zeros and RFC 5952 canonical IPv6 (lowercase, shortest form). Anything else (hostnames,
+ * zone ids, non-canonical spellings) is interned by text and keyed by TEXT_PREFIX plus its text
+ * id, so the report always shows the value as it appeared in the log and two spellings of one
+ * address stay two keys, as they were with String keys. TEXT_PREFIX is the IPv6 discard-only
+ * prefix 100::/64, which never appears as a source address; a literal address inside it is
+ * treated as text too.
+ *
+ * An attacker picks these values too (the low 64 bits of an address in their own /64, or any
+ * hostname), so the index hash is seeded with SymbolTable.SEED like the texts' own index: the
+ * finalizer is invertible, and unseeded it would let any number of addresses be made to share a
+ * slot.
+ *
+ * Keys and the hash index are kept off the Java heap, in OffHeapSlots. A removed key's id goes on
+ * a free list and is handed to the next new key; while free, its key is TEXT_PREFIX with a
+ * negative low half, which no interned value can have.
+ */
+final class IpTable {
+    private static final long V4_MAPPED_HI = 0L;
+    private static final long V4_MAPPED_LO_PREFIX = 0xFFFFL << 32;
+    private static final long TEXT_PREFIX = 0x0100_0000_0000_0000L;
+
+    //Per id: high and low 64 bits of the key
+    private static final int KEY_HI = 0;
+    private static final int KEY_LO = 8;
+
+    //Low half of a free id's key, or'ed with the next free id (or -1)
+    private static final long FREE_LO = Long.MIN_VALUE;
+
+    private OffHeapSlots index = newIndex(64); //id + 1, 0 = empty
+    private int indexCapacity = 64;
+    private final OffHeapSlots keys = new OffHeapSlots(16);
+    private int size;
+    private int freeIds = -1; //first free id, -1 = none
+
+    //ip= values that are not canonical addresses
+    private final SymbolTable texts = new SymbolTable();
+
+    //Output of parse()
+    private long parsedHi;
+    private long parsedLo;
+    private final int[] groups = new int[8];
+
+    /**
+     * @return the id of the ip= value buf[start, end), adding it if it is new
+     */
+    int intern(ByteBuffer buf, int start, int end) {
+        if (!parse(buf, start, end)) {
+            parsedHi = TEXT_PREFIX;
+            parsedLo = texts.intern(buf, start, end);
+        }
+        return internKey(parsedHi, parsedLo);
+    }
+
+    /**
+     * @return the id of the same value in this table, adding it if it is new
+     */
+    int intern(IpTable other, int otherId) {
+        long hi = other.keys.getLong(otherId, KEY_HI);
+        long lo = other.keys.getLong(otherId, KEY_LO);
+        if (hi == TEXT_PREFIX) {
+            lo = texts.intern(other.texts, (int) lo);
+        }
+        return internKey(hi, lo);
+    }
+
+    /**
+     * Formats the value of 'id' as it appeared in the log. Allocates; meant for reporting.
+     */
+    String name(int id) {
+        long hi = keys.getLong(id, KEY_HI);
+        long lo = keys.getLong(id, KEY_LO);
+        if (hi == TEXT_PREFIX) {
+            return texts.name((int) lo);
+        }
+        if (hi == V4_MAPPED_HI && (lo >>> 32) == 0xFFFFL) {
+            return ((lo >>> 24) & 0xFF) + "." + ((lo >>> 16) & 0xFF) + "." + ((lo >>> 8) & 0xFF) + "." + (lo & 0xFF);
+        }
+        return formatV6(hi, lo);
+    }
+
+    /**
+     * @return a value identifying the value of 'id', the same in every IpTable whatever its id
+     */
+    long fingerprint(int id) {
+        long hi = keys.getLong(id, KEY_HI);
+        long lo = keys.getLong(id, KEY_LO);
+        if (hi == TEXT_PREFIX) {
+            //Text ids differ between tables, the fingerprint of the text does not
+            return texts.fingerprint((int) lo);
+        }
+        return hi * 0x9E3779B97F4A7C15L + lo;
+    }
+
+    /**
+     * Number of ids handed out; ids are 0 .. size() - 1, some of them free after remove().
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes the value of 'id'; the id is reused for a later new value.
+     */
+    void remove(int id) {
+        long hi = keys.getLong(id, KEY_HI);
+        long lo = keys.getLong(id, KEY_LO);
+        int mask = indexCapacity - 1;
+        int slot = hash(hi, lo) & mask;
+        while (index.getInt(slot, 0) != id + 1) {
+            slot = (slot + 1) & mask;
+        }
+        //Backward shift: pull later entries of the probe run into the hole so lookups need no tombstones
+        int hole = slot;
+        for (int next = (hole + 1) & mask; index.getInt(next, 0) != 0; next = (next + 1) & mask) {
+            int entry = index.getInt(next, 0);
+            int home = hash(keys.getLong(entry - 1, KEY_HI), keys.getLong(entry - 1, KEY_LO)) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                index.putInt(hole, 0, entry);
+                hole = next;
+            }
+        }
+        index.putInt(hole, 0, 0);
+
+        if (hi == TEXT_PREFIX) {
+            texts.remove((int) lo);
+        }
+        free(id);
+    }
+
+    /**
+     * @return the direct memory held by the index, keys and text keys, in bytes
+     */
+    long bytes() {
+        return index.bytes() + keys.bytes() + texts.bytes();
+    }
+
+    /**
+     * Writes every key in id order, for a checkpoint.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        texts.writeTo(out);
+        out.writeInt(size);
+        for (int id = 0; id < size; id++) {
+            out.writeLong(keys.getLong(id, KEY_HI));
+            out.writeLong(keys.getLong(id, KEY_LO));
+        }
+    }
+
+    /**
+     * Reads keys written by writeTo into this (empty) table; they get the same ids, and free ids
+     * stay free.
+     */
+    void readFrom(DataInputStream in) throws IOException {
+        texts.readFrom(in);
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            long hi = in.readLong();
+            long lo = in.readLong();
+            if (isFree(hi, lo)) {
+                //Held by a placeholder until every key has its id
+                keys.ensure(size);
+                keys.putLong(size, KEY_HI, hi);
+                keys.putLong(size++, KEY_LO, lo);
+            } else {
+                internKey(hi, lo);
+            }
+        }
+        for (int id = size - 1; id >= 0; id--) {
+            if (isFree(keys.getLong(id, KEY_HI), keys.getLong(id, KEY_LO))) {
+                free(id);
+            }
+        }
+    }
+
+    private int internKey(long hi, long lo) {
+        int hash = hash(hi, lo);
+        int mask = indexCapacity - 1;
+        int slot = hash & mask;
+        while (true) {
+            int entry = index.getInt(slot, 0);
+            if (entry == 0) {
+                break;
+            }
+            int id = entry - 1;
+            if (keys.getLong(id, KEY_HI) == hi && keys.getLong(id, KEY_LO) == lo) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int id;
+        if (freeIds >= 0) {
+            id = freeIds;
+            freeIds = (int) keys.getLong(id, KEY_LO);
+        } else {
+            id = size++;
+            keys.ensure(id);
+        }
+        keys.putLong(id, KEY_HI, hi);
+        keys.putLong(id, KEY_LO, lo);
+        index.putInt(slot, 0, id + 1);
+        if (size * 2 > indexCapacity) {
+            rehash(indexCapacity * 2);
+        }
+        return id;
+    }
+
+    private void free(int id) {
+        keys.putLong(id, KEY_HI, TEXT_PREFIX);
+        keys.putLong(id, KEY_LO, FREE_LO | (freeIds & 0xFFFF_FFFFL));
+        freeIds = id;
+    }
+
+    private static boolean isFree(long hi, long lo) {
+        return hi == TEXT_PREFIX && lo < 0;
+    }
+
+    private void rehash(int capacity) {
+        OffHeapSlots newIndex = newIndex(capacity);
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            if (isFree(keys.getLong(id, KEY_HI), keys.getLong(id, KEY_LO))) {
+                continue;
+            }
+            int slot = hash(keys.getLong(id, KEY_HI), keys.getLong(id, KEY_LO)) & mask;
+            while (newIndex.getInt(slot, 0) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newIndex.putInt(slot, 0, id + 1);
+        }
+        index = newIndex;
+        indexCapacity = capacity;
+    }
+
+    private static OffHeapSlots newIndex(int capacity) {
+        OffHeapSlots index = new OffHeapSlots(Integer.BYTES);
+        index.ensure(capacity - 1);
+        return index;
+    }
+
+    private static int hash(long hi, long lo) {
+        long h = (hi * 0x9E3779B97F4A7C15L + lo) ^ SymbolTable.SEED;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * Packs a canonical IPv4 or IPv6 address into parsedHi/parsedLo.
+     * @return false if buf[start, end) is not a canonical address
+     */
+    private boolean parse(ByteBuffer buf, int start, int end) {
+        if (parseV4(buf, start, end)) {
+            return true;
+        }
+        if (!parseV6(buf, start, end)) {
+            return false;
+        }
+        //These ranges are reserved for IPv4 and text keys
+        return !(parsedHi == V4_MAPPED_HI && (parsedLo >>> 32) == 0xFFFFL) && parsedHi != TEXT_PREFIX;
+    }
+
+    private boolean parseV4(ByteBuffer buf, int start, int end) {
+        long address = 0;
+        int pos = start;
+        for (int part = 0; part < 4; part++) {
+            if (part > 0) {
+                if (pos >= end || buf.get(pos) != '.') {
+                    return false;
+                }
+                pos++;
+            }
+            int digitsStart = pos;
+            int value = 0;
+            while (pos < end && pos - digitsStart < 3) {
+                int d = buf.get(pos) - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                value = value * 10 + d;
+                pos++;
+            }
+            int length = pos - digitsStart;
+            if (length == 0 || value > 255 || (length > 1 && buf.get(digitsStart) == '0')) {
+                return false;
+            }
+            address = (address << 8) | value;
+        }
+        if (pos != end) {
+            return false;
+        }
+        parsedHi = V4_MAPPED_HI;
+        parsedLo = V4_MAPPED_LO_PREFIX | address;
+        return true;
+    }
+
+    private boolean parseV6(ByteBuffer buf, int start, int end) {
+        int count = 0; //groups written
+        int gapAt = -1; //group index where '::' sits
+        int pos = start;
+        if (end - start >= 2 && buf.get(pos) == ':' && buf.get(pos + 1) == ':') {
+            gapAt = 0;
+            pos += 2;
+        } else if (pos < end && buf.get(pos) == ':') {
+            return false;
+        }
+        while (pos < end) {
+            if (count == 8) {
+                return false;
+            }
+            int digitsStart = pos;
+            int value = 0;
+            while (pos < end && pos - digitsStart < 4) {
+                int d = hexDigit(buf.get(pos));
+                if (d < 0) {
+                    break;
+                }
+                value = (value << 4) | d;
+                pos++;
+            }
+            int length = pos - digitsStart;
+            if (length == 0 || (length > 1 && buf.get(digitsStart) == '0')) {
+                return false;
+            }
+            groups[count++] = value;
+            if (pos == end) {
+                break;
+            }
+            if (buf.get(pos) != ':') {
+                return false;
+            }
+            pos++;
+            if (pos < end && buf.get(pos) == ':') {
+                if (gapAt >= 0) {
+                    return false;
+                }
+                gapAt = count;
+                pos++;
+            } else if (pos == end) {
+                return false;
+            }
+        }
+
+        int gap = 8 - count;
+        if (gapAt < 0 ? gap != 0 : gap < 2) {
+            //Canonical form never uses '::' for a single zero group
+            return false;
+        }
+
+        //Expand the gap, then check it covers the longest (leftmost) run of zero groups
+        long hi = 0;
+        long lo = 0;
+        int bestStart = -1, bestLength = 1, runStart = -1;
+        for (int g = 0, src = 0; g < 8; g++) {
+            int value = (gapAt >= 0 && g >= gapAt && g < gapAt + gap) ? 0 : groups[src++];
+            if (g < 4) {
+                hi = (hi << 16) | value;
+            } else {
+                lo = (lo << 16) | value;
+            }
+            if (value == 0) {
+                if (runStart < 0) {
+                    runStart = g;
+                }
+                if (g - runStart + 1 > bestLength) {
+                    bestStart = runStart;
+                    bestLength = g - runStart + 1;
+                }
+            } else {
+                runStart = -1;
+            }
+        }
+        if (gapAt < 0 ? bestStart >= 0 : (bestStart != gapAt || bestLength != gap)) {
+            return false;
+        }
+        parsedHi = hi;
+        parsedLo = lo;
+        return true;
+    }
+
+    //Lowercase only: uppercase hex is not canonical
+    private static int hexDigit(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        return -1;
+    }
+
+    private static String formatV6(long hi, long lo) {
+        int[] g = new int[8];
+        for (int i = 0; i < 4; i++) {
+            g[i] = (int) (hi >>> (48 - 16 * i)) & 0xFFFF;
+            g[i + 4] = (int) (lo >>> (48 - 16 * i)) & 0xFFFF;
+        }
+        int bestStart = -1, bestLength = 1, runStart = -1;
+        for (int i = 0; i < 8; i++) {
+            if (g[i] == 0) {
+                if (runStart < 0) {
+                    runStart = i;
+                }
+                if (i - runStart + 1 > bestLength) {
+                    bestStart = runStart;
+                    bestLength = i - runStart + 1;
+                }
+            } else {
+                runStart = -1;
+            }
+        }
+        StringBuilder sb = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            if (i == bestStart) {
+                sb.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') {
+                sb.append(':');
+            }
+            sb.append(Integer.toHexString(g[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,223 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Parser for JSON lines, one object per line:
+ *
+ *   {"time":"2024-03-05T06:25:01Z","event":"FAILED_LOGIN","user":"alice","ip":"203.0.113.9"}
+ *
+ * Only top-level members are read, under any of these names:
+ * - time, timestamp, @timestamp, ts: an RFC 3339 string or a number of epoch seconds
+ * - event, type, action: FAILED_LOGIN or SUCCESS_LOGIN; other values are NOT_LOGIN
+ * - user, username
+ * - ip, src_ip, source_ip, client_ip
+ * If a line has several, the last one wins. Other members, nested objects and arrays are
+ * skipped. The object is scanned once without building a tree; user and ip are the raw bytes
+ * between the quotes, escape sequences are not decoded.
+ */
+final class JsonParser extends EventParser {
+    private static final byte[][] TIME_KEYS = {ascii("time"), ascii("timestamp"), ascii("@timestamp"), ascii("ts")};
+    private static final byte[][] TYPE_KEYS = {ascii("event"), ascii("type"), ascii("action")};
+    private static final byte[][] USER_KEYS = {ascii("user"), ascii("username")};
+    private static final byte[][] IP_KEYS = {ascii("ip"), ascii("src_ip"), ascii("source_ip"), ascii("client_ip")};
+
+    /**
+     * Parses buf[start, end) as one JSON object.
+     * @return
+     * - OK if the object is a login event, results are in the fields
+     * - SHORT_LINE if the line is not a well formed JSON object
+     * - otherwise the first reason it is not an event, checked in the order BAD_TIMESTAMP,
+     *   NOT_LOGIN, MISSING_USER, MISSING_IP
+     */
+    @Override
+    int parse(ByteBuffer buf, int start, int end) {
+        while (start < end && (buf.get(start) & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (buf.get(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+        if (start == end || buf.get(start) != '{') {
+            return SHORT_LINE;
+        }
+
+        int timeFrom = -1, timeTo = -1, typeFrom = -1, typeTo = -1;
+        int userFrom = -1, userTo = -1, ipFrom = -1, ipTo = -1;
+        boolean timeQuoted = false;
+
+        int pos = skipSpaces(buf, start + 1, end);
+        boolean empty = pos < end && buf.get(pos) == '}';
+        while (!empty) {
+            //"key"
+            if (pos >= end || buf.get(pos) != '"') {
+                return SHORT_LINE;
+            }
+            int keyStart = pos + 1;
+            int keyEnd = stringEnd(buf, keyStart, end);
+            if (keyEnd < 0) {
+                return SHORT_LINE;
+            }
+            pos = skipSpaces(buf, keyEnd + 1, end);
+            if (pos >= end || buf.get(pos) != ':') {
+                return SHORT_LINE;
+            }
+            pos = skipSpaces(buf, pos + 1, end);
+            if (pos >= end) {
+                return SHORT_LINE;
+            }
+
+            //value: a string's contents, or the raw text of anything else
+            boolean quoted = buf.get(pos) == '"';
+            int valueStart;
+            int valueEnd;
+            if (quoted) {
+                valueStart = pos + 1;
+                valueEnd = stringEnd(buf, valueStart, end);
+                if (valueEnd < 0) {
+                    return SHORT_LINE;
+                }
+                pos = valueEnd + 1;
+            } else {
+                valueStart = pos;
+                valueEnd = valueEnd(buf, pos, end);
+                if (valueEnd < 0) {
+                    return SHORT_LINE;
+                }
+                pos = valueEnd;
+            }
+
+            if (matches(buf, keyStart, keyEnd, TIME_KEYS)) {
+                timeFrom = valueStart;
+                timeTo = valueEnd;
+                timeQuoted = quoted;
+            } else if (matches(buf, keyStart, keyEnd, TYPE_KEYS)) {
+                typeFrom = valueStart;
+                typeTo = valueEnd;
+            } else if (quoted && matches(buf, keyStart, keyEnd, USER_KEYS)) {
+                userFrom = valueStart;
+                userTo = valueEnd;
+            } else if (quoted && matches(buf, keyStart, keyEnd, IP_KEYS)) {
+                ipFrom = valueStart;
+                ipTo = valueEnd;
+            }
+
+            pos = skipSpaces(buf, pos, end);
+            if (pos >= end) {
+                return SHORT_LINE;
+            }
+            byte b = buf.get(pos);
+            if (b == '}') {
+                break;
+            }
+            if (b != ',') {
+                return SHORT_LINE;
+            }
+            pos = skipSpaces(buf, pos + 1, end);
+        }
+
+        if (timeFrom < 0) {
+            return BAD_TIMESTAMP;
+        }
+        epochSecond = timeQuoted ? rfc3339(buf, timeFrom, timeTo) : epochSeconds(buf, timeFrom, timeTo);
+        if (epochSecond == INVALID_TIME) {
+            return BAD_TIMESTAMP;
+        }
+        if (typeFrom < 0) {
+            return NOT_LOGIN;
+        }
+        type = eventType(buf, typeFrom, typeTo);
+        if (type == TYPE_OTHER) {
+            return NOT_LOGIN;
+        }
+        if (userFrom < 0) {
+            return MISSING_USER;
+        }
+        if (ipFrom < 0) {
+            return MISSING_IP;
+        }
+        userStart = userFrom;
+        userEnd = userTo;
+        ipStart = ipFrom;
+        ipEnd = ipTo;
+        return OK;
+    }
+
+    /**
+     * @return the offset of the quote closing the string whose contents start at 'pos', or -1
+     */
+    private static int stringEnd(ByteBuffer buf, int pos, int end) {
+        while (pos < end) {
+            byte b = buf.get(pos);
+            if (b == '"') {
+                return pos;
+            }
+            pos += (b == '\\') ? 2 : 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Skips a number, literal, object or array starting at 'pos'.
+     * @return the offset just past it, or -1 if an object or array is not closed
+     */
+    private static int valueEnd(ByteBuffer buf, int pos, int end) {
+        int depth = 0;
+        while (pos < end) {
+            byte b = buf.get(pos);
+            if (b == '"') {
+                pos = stringEnd(buf, pos + 1, end);
+                if (pos < 0) {
+                    return -1;
+                }
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                if (depth == 0) {
+                    return pos;
+                }
+                depth--;
+            } else if (depth == 0 && (b == ',' || isSpace(b))) {
+                return pos;
+            }
+            pos++;
+        }
+        return (depth == 0) ? pos : -1;
+    }
+
+    /**
+     * Decodes a number of epoch seconds, "1709619901" or "1709619901.123"; the fraction is dropped.
+     * @return epoch seconds, or INVALID_TIME if buf[start, end) is not such a number
+     */
+    private static long epochSeconds(ByteBuffer buf, int start, int end) {
+        long seconds = 0;
+        int pos = start;
+        while (pos < end && buf.get(pos) >= '0' && buf.get(pos) <= '9') {
+            if (pos - start == 12) {
+                return INVALID_TIME; //beyond year 33658, most likely milliseconds
+            }
+            seconds = seconds * 10 + (buf.get(pos) - '0');
+            pos++;
+        }
+        if (pos == start) {
+            return INVALID_TIME;
+        }
+        if (pos < end && buf.get(pos) == '.') {
+            int fraction = ++pos;
+            while (pos < end && buf.get(pos) >= '0' && buf.get(pos) <= '9') {
+                pos++;
+            }
+            if (pos == fraction) {
+                return INVALID_TIME;
+            }
+        }
+        return (pos == end) ? seconds : INVALID_TIME;
+    }
+
+    private static boolean matches(ByteBuffer buf, int start, int end, byte[][] names) {
+        for (byte[] name : names) {
+            if (name.length == end - start && startsWith(buf, start, end, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
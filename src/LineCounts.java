@@ -0,0 +1,57 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Input quality counters: lines rejected by the parser, per reason (malformed or not a login
+ * event), valid lines whose event type no rule handles and events dropped for arriving too
+ * late to be put back in time order.
+ */
+final class LineCounts {
+    //Indexed by EventParser reason code; OK is unused
+    final long[] rejected = new long[EventParser.REJECT_REASONS];
+    long unknownTypes;
+    long late; //only counted with --reorder
+
+    /**
+     * Total lines skipped as not valid log lines.
+     */
+    long malformed() {
+        long total = 0;
+        for (int reason = EventParser.OK + 1; reason < EventParser.NOT_LOGIN; reason++) {
+            total += rejected[reason];
+        }
+        return total;
+    }
+
+    /**
+     * Lines dropped by the parser's pre-filter as well formed but not login events.
+     */
+    long notLogin() {
+        return rejected[EventParser.NOT_LOGIN];
+    }
+
+    void add(LineCounts other) {
+        for (int reason = 0; reason < rejected.length; reason++) {
+            rejected[reason] += other.rejected[reason];
+        }
+        unknownTypes += other.unknownTypes;
+        late += other.late;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        for (long count : rejected) {
+            out.writeLong(count);
+        }
+        out.writeLong(unknownTypes);
+        out.writeLong(late);
+    }
+
+    void readFrom(DataInputStream in) throws IOException {
+        for (int reason = 0; reason < rejected.length; reason++) {
+            rejected[reason] = in.readLong();
+        }
+        unknownTypes = in.readLong();
+        late = in.readLong();
+    }
+}
@@ -0,0 +1,21 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A sequence of raw log lines. After next() returns true the current line is
+ * buffer()[lineStart(), lineEnd()), valid until the following call.
+ */
+interface LineSource extends Closeable {
+    /**
+     * Advances to the next line.
+     * @return false once the input is exhausted
+     */
+    boolean next() throws IOException;
+
+    ByteBuffer buffer();
+
+    int lineStart();
+
+    int lineEnd();
+}
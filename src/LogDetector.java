@@ -1,20 +1,23 @@
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.InputStream;
 import java.io.PrintWriter;
 
-import java.time.Duration;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.Map;
-import java.util.Iterator;
 
 /**
  * Blue Team Log Detector (JAVA)
@@ -22,6 +25,7 @@ import java.util.Iterator;
  * Reads a simplified authiniticaiton log file, detects suspicious activity, and writes the results to an incident style output file.
  * 
  * Exptected input line format (one event per line): yyyy-MM-dd HH:mm:ss FAIL|SUCCESS user=... ip=...
+ * OpenSSH syslog, RFC 5424 and JSON logs are read too, see LogFormat.
  * 
  * Detection Rules:
  * 1. Brute force by IP: >= IP_FAIL_THRESHOLD FAILED_LOGIN within WINDOW_MINUTES.
@@ -30,14 +34,18 @@ import java.util.Iterator;
  */
 
 public final class LogDetector {
-    // Detection rules
-    private static final int IP_FAIL_THRESHOLD = 5; //>= 5 fails
-    private static final int WINDOW_MINUTES = 10; //... within 10 minutes
-    private static final int USER_FAIL_THRESHOLD = 8; //>= 8 total fails for user
-
     //Timestamp format used in the log lines
     private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
+    //How long follow mode sleeps when the log has nothing new
+    private static final long FOLLOW_POLL_MILLIS = 1000;
+
+    //Minimum time between two checkpoints in follow mode
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 10_000;
+
+    //Most lines --reorder holds back at once
+    private static final int REORDER_CAPACITY = 1 << 16;
+
     private LogDetector() {
         // Private constructor to prevent instantiation
     }
@@ -99,178 +107,540 @@ public final class LogDetector {
     }
 
     /**
-     * Removes timestamps from 'times' that are older than WINDOW_MINUTES from relative to 'newest'.
-     * 
+     * Runs parseLine and AuthLineParser side by side over every line of 'inputPath' and prints
+     * each line where they disagree. A line on which parseLine throws counts as rejected.
+     * @return number of mismatching lines, or -1 if the file cannot be read
      */
-    private static void pruneOldTimes(List<LocalDateTime> times, LocalDateTime newest) {
-        Iterator<LocalDateTime> it = times.iterator();
-        while(it.hasNext()) {
-            LocalDateTime t =it.next();
-
-            //Compute age in minutes: newest - t
-            Duration duration = Duration.between(t, newest);
-            long minutesOld = duration.toMinutes();
-            if (minutesOld > WINDOW_MINUTES) {
-                it.remove();
+    private static int verifyParser(String inputPath) {
+        AuthLineParser parser = new AuthLineParser();
+        int lines = 0;
+        int mismatches = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(inputPath))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines++;
+                Event expected;
+                try {
+                    expected = parseLine(line);
+                } catch (DateTimeParseException ex) {
+                    expected = null;
+                }
+
+                ByteBuffer buf = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+                int result = parser.parse(buf, 0, buf.limit());
+                boolean accepted = result == EventParser.OK;
+
+                boolean same;
+                if (result == EventParser.NOT_LOGIN) {
+                    //The pre-filter only drops lines parseLine rejects or reads as another type
+                    same = expected == null || (!"FAILED_LOGIN".equals(expected.type) && !"SUCCESS_LOGIN".equals(expected.type));
+                } else if (expected == null || !accepted) {
+                    same = (expected == null) == !accepted;
+                } else {
+                    byte expectedType = "FAILED_LOGIN".equals(expected.type) ? EventParser.TYPE_FAILED
+                            : "SUCCESS_LOGIN".equals(expected.type) ? EventParser.TYPE_SUCCESS
+                            : EventParser.TYPE_OTHER;
+                    same = expected.time.toEpochSecond(ZoneOffset.UTC) == parser.epochSecond
+                            && expectedType == parser.type
+                            && expected.user.equals(parser.user(buf))
+                            && expected.ip.equals(parser.ip(buf));
+                }
+                if (!same) {
+                    mismatches++;
+                    System.out.println("Mismatch at line " + lines + ": " + line);
+                }
             }
+        } catch (IOException e) {
+            System.out.println("Error reading input file: " + inputPath);
+            System.out.println(e.getMessage());
+            return -1;
         }
+        System.out.println("Checked " + lines + " lines, " + mismatches + " mismatches");
+        return mismatches;
     }
 
     /**
-     * Main detection logic
+     * Parses every line of 'reader' as 'format' and feeds it to 'state' in order, numbering
+     * them after 'seq'.
+     * @return the sequence number of the last line read
      */
+    private static long analyze(LineSource reader, LogFormat format, DetectorState state, long seq) throws IOException {
+        EventParser parser = format.newParser();
+        while (reader.next()) {
+            seq++;
+            //Parse the raw line bytes in place
+            ByteBuffer buf = reader.buffer();
+            int result = parser.parse(buf, reader.lineStart(), reader.lineEnd());
+            if (result != EventParser.OK) {
+                state.lines.rejected[result]++;
+                continue;
+            }
+            long time = parser.epochSecond;
+
+            switch (parser.type) {
+                case EventParser.TYPE_FAILED:
+                    state.failed(seq, time, buf, parser.userStart, parser.userEnd, parser.ipStart, parser.ipEnd);
+                    break;
+                case EventParser.TYPE_SUCCESS:
+                    state.success(seq, time, buf, parser.userStart, parser.userEnd, parser.ipStart, parser.ipEnd);
+                    break;
+                default:
+                    //unknown types are counted, not analyzed
+                    state.lines.unknownTypes++;
+                    break;
+            }
+        }
+        return seq;
+    }
 
-    public static void main(String[] args) {
-        String inputPath = (args.length >= 1) ? args[0] : "lib/auth.log";
-        String outputPath = (args.length >= 2) ? args[1] : "bin/report.txt";
+    /**
+     * Follow mode: analyzes the whole file, then keeps reading lines as they are appended.
+     * Alerts are printed as flags are raised and the report is rewritten after every batch of
+     * new lines; the detector state stays in memory across reads. Runs until the process stops.
+     * With a checkpoint file, starts from the saved position and saves it at most every
+     * CHECKPOINT_INTERVAL_MILLIS.
+     */
+    private static void follow(String inputPath, String outputPath, LogFormat format, String checkpointPath, DetectorState state) throws IOException, InterruptedException {
+        Path input = Paths.get(inputPath);
+        Path checkpointFile = (checkpointPath != null) ? Paths.get(checkpointPath) : null;
+        Checkpoint resume = (checkpointFile != null) ? Checkpoint.load(checkpointFile, input, state) : null;
+        state.listener = new ConsoleAlerts(state);
+        long seq = (resume != null) ? finishRotated(resume, inputPath, format, state) : 0;
+        long lastCheckpoint = System.currentTimeMillis();
+        try (TailLineReader reader = new TailLineReader(input, (resume != null) ? resume.offset : 0)) {
+            while (true) {
+                long before = seq;
+                seq = analyze(reader, format, state, seq);
+                if (seq != before) {
+                    writeReport(state, inputPath, format.name(), outputPath);
+                    long now = System.currentTimeMillis();
+                    if (checkpointFile != null && now - lastCheckpoint >= CHECKPOINT_INTERVAL_MILLIS) {
+                        Checkpoint.save(checkpointFile, reader.fileKey(), reader.offset(), seq, state);
+                        lastCheckpoint = now;
+                    }
+                }
+                //Rotation or truncation means there may be more to read right away
+                if (!reader.poll()) {
+                    Thread.sleep(FOLLOW_POLL_MILLIS);
+                }
+            }
+        }
+    }
 
-        //Data structures for detection
-        
-        //For each IP, store timestamps of FAILED_LOGIN within the rolling window
-        Map<String, List<LocalDateTime>> failedTimesByIp = new HashMap<>();
+    /**
+     * Batch run with a checkpoint: resumes from the saved position, analyzes the complete lines
+     * appended since, and saves the new position. An unterminated last line is left for the
+     * next run.
+     */
+    private static void resumeFromCheckpoint(String inputPath, LogFormat format, String checkpointPath, DetectorState state) throws IOException {
+        Path input = Paths.get(inputPath);
+        Path checkpointFile = Paths.get(checkpointPath);
+        Checkpoint resume = Checkpoint.load(checkpointFile, input, state);
+        long seq = (resume != null) ? finishRotated(resume, inputPath, format, state) : 0;
+        try (TailLineReader reader = new TailLineReader(input, (resume != null) ? resume.offset : 0)) {
+            seq = analyze(reader, format, state, seq);
+            Checkpoint.save(checkpointFile, reader.fileKey(), reader.offset(), seq, state);
+        }
+    }
 
-        //Tootal FAILED_LOGIN per user
-        Map<String, Integer> failedCountByUser = new HashMap<>();
+    /**
+     * Reads what was written to the checkpointed file after the checkpoint if the input has
+     * been rotated since, up to its end, including an unterminated last line.
+     * @return the sequence number of the last line read
+     */
+    private static long finishRotated(Checkpoint resume, String inputPath, LogFormat format, DetectorState state) throws IOException {
+        if (resume.rotatedLost) {
+            System.out.println("Warning: " + inputPath + " was rotated since the checkpoint and the old file was not found;"
+                    + " lines written to it after the checkpoint are not analyzed");
+        }
+        if (resume.rotated == null) {
+            return resume.seq;
+        }
+        InputStream in = Files.newInputStream(resume.rotated);
+        try (ByteLineReader reader = new ByteLineReader(in)) {
+            in.skipNBytes(resume.rotatedOffset);
+            return analyze(reader, format, state, resume.seq);
+        }
+    }
 
-        //Flagged IPs and usernames
-        Set<String> flaggedIps = new HashSet<>();
-        Set<String> flaggedUsers = new HashSet<>();
+    /**
+     * Prints each detection to stdout as it happens (follow mode).
+     */
+    private static final class ConsoleAlerts implements DetectorState.AlertListener {
+        private final DetectorState state;
 
-        //If a flagged IP later has SUCCESS_LOGIN, add here
-        List<String> possibleCompormises = new ArrayList<>();
+        ConsoleAlerts(DetectorState state) {
+            this.state = state;
+        }
 
-        //Report friendly details for IP window (largest window we observed)
-        Map<String, Integer> maxWindowFailsByIp = new HashMap<>();
-        Map<String, LocalDateTime> windowStartByIp = new HashMap<>();
-        Map<String, LocalDateTime> windowEndByIp = new HashMap<>();
+        @Override
+        public void ipFlagged(int ip) {
+            IpStore ipStates = state.ipStates;
+            System.out.println("ALERT Brute force: ip=" + state.ips.name(ip) + " fails=" + ipStates.bestCount(ip)
+                    + " in " + DetectorState.WINDOW_MINUTES + " min window (" + DetectorState.toDateTime(ipStates.bestStart(ip))
+                    + " to " + DetectorState.toDateTime(ipStates.bestEnd(ip)) + ")");
+        }
 
-        //Track how many lines were skipped (not valid log lines)
-        int malformedLines = 0;
+        @Override
+        public void userFlagged(int user, int totalFails) {
+            System.out.println("ALERT Targeted account: user=" + state.users.name(user) + " failed logins=" + totalFails);
+        }
 
-        //Read and process each line of the log file
-        try (BufferedReader br = new BufferedReader(new FileReader(inputPath))) {
-            String line; 
-            while ((line = br.readLine()) != null) {
-                //Conver one raw line into a structured Event obect;
-                Event e = parseLine(line);
-                if (e == null) {
-                    malformedLines++;
-                    continue;
-                }
+        @Override
+        public void possibleCompromise(String message) {
+            System.out.println("ALERT " + message);
+        }
 
-                //Case: FAILED_LOGIN
-                if ("FAILED_LOGIN".equals(e.type)) {
-                    //Rule 1: Brute force by IP
-
-                    //Make sure the IP key exists in the map
-                    failedTimesByIp.putIfAbsent(e.ip, new ArrayList<>());
-
-                    //Add this failure time
-                    List<LocalDateTime> times = failedTimesByIp.get(e.ip);
-                    times.add(e.time);
-
-                    //remove timestamps outside the rolling WINDOW_MINUTES window
-                    pruneOldTimes(times, e.time);
-                    
-                    //Count failures in the current rolling window
-                    int windowCount = times.size();
-
-                    //Save the best (largest) window counts for the report
-                    int prevBest = maxWindowFailsByIp.getOrDefault(e.ip, 0);
-                    if (windowCount > prevBest) {
-                        maxWindowFailsByIp.put(e.ip, windowCount);
-                        windowStartByIp.put(e.ip, times.get(0));
-                        windowEndByIp.put(e.ip, times.get(times.size() - 1));
-                    }
+        @Override
+        public void passwordSpray(int ip, int distinctUsers) {
+            System.out.println("ALERT Password spray: ip=" + state.ips.name(ip) + " distinct users=" + distinctUsers);
+        }
 
-                    //If the rolling window count reaches threshold, flag the IP
-                    if (windowCount >= IP_FAIL_THRESHOLD) {
-                        flaggedIps.add(e.ip);
-                    }
+        @Override
+        public void credentialStuffing(int user, int distinctIps) {
+            System.out.println("ALERT Credential stuffing: user=" + state.users.name(user) + " distinct IPs=" + distinctIps);
+        }
+    }
+
+    /**
+     * Main detection logic
+     */
 
-                    //Rule 2: Target account by username total
-                    int newTotal = failedCountByUser.getOrDefault(e.user, 0) + 1;
-                    failedCountByUser.put(e.user, newTotal);
+    public static void main(String[] args) {
+        //Self check: compare the byte parser against parseLine on a log file
+        if (args.length >= 1 && "--verify-parser".equals(args[0])) {
+            int mismatches = verifyParser((args.length >= 2) ? args[1] : "lib/auth.log");
+            if (mismatches != 0) {
+                System.exit(1);
+            }
+            return;
+        }
 
-                    if (newTotal >= USER_FAIL_THRESHOLD) {
-                        flaggedUsers.add(e.user);
-                    }
-                } else if ("SUCCESS_LOGIN".equals(e.type)) {
-                    //Rule 3: Success after a brute force pattern
-                    //If an IP was already flagged and then succeeds, this can be high risk
-                    if (flaggedIps.contains(e.ip)) {
-                        possibleCompormises.add("Possible Compomise: time=" + e.time + " user=" + e.user + " (success after brute-force pattern)");
-                    } 
-                } else {
-                    //unkown types ignored
+        //Benchmark: compare the delimiter scanners on a log file
+        if (args.length >= 1 && "--bench-scanner".equals(args[0])) {
+            if (ScannerBenchmark.run((args.length >= 2) ? args[1] : "lib/auth.log") != 0) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        //Options come before the input and output paths
+        boolean mapped = false; //--mmap: read the input through memory-mapped segments
+        int threads = 1; //--parallel N: analyze N chunks of the input concurrently
+        boolean following = false; //--follow: keep reading as the log grows
+        String checkpointPath = null; //--checkpoint FILE: resume from and save to FILE
+        boolean merging = false; //--merge: the input files are concurrent sources, merge by time
+        int reorderSeconds = -1; //--reorder SECONDS: restore time order within this lag
+        int parsers = 0; //--pipeline N: reader, N parser and one detector thread
+        String archivePath = null; //--convert ARCHIVE: write an event archive instead of a report
+        LogFormat format = null; //--format NAME: input format; sniffed from the first lines if not given
+        long idleSeconds = 0; //--evict-idle SECONDS: forget keys idle this long, 0 = never
+        IpStore ipStates = new ExactIpStore(); //--window exact|bucketed: rule 1 window representation
+        int sketchKb = 0; //--user-sketch KB: count users in a sketch of this size, 0 = exact counts
+        int argIndex = 0;
+        while (argIndex < args.length && args[argIndex].startsWith("--")) {
+            String option = args[argIndex++];
+            if ("--mmap".equals(option)) {
+                mapped = true;
+            } else if ("--follow".equals(option)) {
+                following = true;
+            } else if ("--merge".equals(option)) {
+                merging = true;
+            } else if ("--checkpoint".equals(option) && argIndex < args.length) {
+                checkpointPath = args[argIndex++];
+            } else if ("--reorder".equals(option) && argIndex < args.length) {
+                reorderSeconds = parseCount(args[argIndex++]);
+                if (reorderSeconds < 0) {
+                    System.out.println("--reorder expects a lag in seconds");
+                    return;
+                }
+            } else if ("--format".equals(option) && argIndex < args.length) {
+                format = LogFormat.named(args[argIndex++]);
+                if (format == null) {
+                    System.out.println("--format expects one of: " + LogFormat.names());
+                    return;
+                }
+            } else if ("--evict-idle".equals(option) && argIndex < args.length) {
+                idleSeconds = parseCount(args[argIndex++]);
+                if (idleSeconds < DetectorState.MIN_IDLE_SECONDS) {
+                    System.out.println("--evict-idle expects at least " + DetectorState.MIN_IDLE_SECONDS + " seconds");
+                    return;
+                }
+            } else if ("--window".equals(option) && argIndex < args.length) {
+                ipStates = IpStore.named(args[argIndex++]);
+                if (ipStates == null) {
+                    System.out.println("--window expects exact or bucketed");
+                    return;
+                }
+            } else if ("--user-sketch".equals(option) && argIndex < args.length) {
+                sketchKb = parseCount(args[argIndex++]);
+                if (sketchKb < UserSketch.MIN_KB) {
+                    System.out.println("--user-sketch expects at least " + UserSketch.MIN_KB + " KB");
+                    return;
                 }
+            } else if ("--convert".equals(option) && argIndex < args.length) {
+                archivePath = args[argIndex++];
+            } else if ("--pipeline".equals(option) && argIndex < args.length) {
+                parsers = parseCount(args[argIndex++]);
+                if (parsers < 1) {
+                    System.out.println("--pipeline expects a positive parser thread count");
+                    return;
+                }
+            } else if ("--parallel".equals(option) && argIndex < args.length) {
+                threads = parseCount(args[argIndex++]);
+                if (threads < 1) {
+                    System.out.println("--parallel expects a positive thread count");
+                    return;
+                }
+            } else {
+                System.out.println("Unknown option: " + option);
+                return;
             }
-                
+        }
+        String inputPath = (args.length > argIndex) ? args[argIndex] : "lib/auth.log";
+        String outputPath = (args.length > argIndex + 1) ? args[argIndex + 1] : "bin/report.txt";
+
+        if (SshdParser.ZONE == null) {
+            System.out.println("-Dsyslog.zone expects a time zone ID such as Europe/Berlin or +01:00");
+            return;
+        }
+
+        if ((following || checkpointPath != null) && (mapped || threads > 1)) {
+            System.out.println("--follow and --checkpoint cannot be combined with --mmap or --parallel");
+            return;
+        }
+        if (reorderSeconds >= 0 && (following || checkpointPath != null || threads > 1)) {
+            System.out.println("--reorder cannot be combined with --follow, --checkpoint or --parallel");
+            return;
+        }
+        if (archivePath != null && (threads > 1 || parsers > 0 || following || checkpointPath != null)) {
+            System.out.println("--convert cannot be combined with --parallel, --pipeline, --follow or --checkpoint");
+            return;
+        }
+        if (idleSeconds > 0 && (threads > 1 || archivePath != null)) {
+            System.out.println("--evict-idle cannot be combined with --parallel or --convert");
+            return;
+        }
+        if (sketchKb > 0 && (threads > 1 || archivePath != null)) {
+            System.out.println("--user-sketch cannot be combined with --parallel or --convert");
+            return;
+        }
+        if (parsers > 0 && (mapped || threads > 1 || following || checkpointPath != null || merging || reorderSeconds >= 0)) {
+            System.out.println("--pipeline cannot be combined with other reading modes");
+            return;
+        }
+
+        //The input may be a directory or glob of rotated, possibly gzipped, logs
+        List<Path> inputs;
+        try {
+            inputs = LogFiles.resolve(inputPath);
+        } catch (IOException e) {
+            System.out.println("Error reading input file: " + inputPath);
+            System.out.println(e.getMessage());
+            return;
+        }
+        boolean singlePlainFile = inputs.size() == 1 && !LogFiles.isCompressed(inputs.get(0));
+        if ((merging || !singlePlainFile) && (mapped || threads > 1 || parsers > 0 || following || checkpointPath != null)) {
+            System.out.println("--mmap, --parallel, --pipeline, --follow and --checkpoint need a single uncompressed file, without --merge");
+            return;
+        }
+
+        //An event archive written by --convert is analyzed directly, without text parsing
+        boolean archived;
+        try {
+            archived = singlePlainFile && EventArchive.isArchive(inputs.get(0));
         } catch (IOException e) {
-                //If we can't read the input file, stop and print error
+            System.out.println("Error reading input file: " + inputPath);
+            System.out.println(e.getMessage());
+            return;
+        }
+        if (archived && (mapped || threads > 1 || parsers > 0 || following || checkpointPath != null
+                || merging || reorderSeconds >= 0 || archivePath != null || idleSeconds > 0 || sketchKb > 0)) {
+            System.out.println("An event archive is read on its own, without reading options, --evict-idle or --user-sketch");
+            return;
+        }
+
+        //Without --format, the first file decides
+        if (format == null && !archived) {
+            try {
+                format = LogFormat.sniff(inputs.get(0));
+            } catch (IOException e) {
                 System.out.println("Error reading input file: " + inputPath);
                 System.out.println(e.getMessage());
                 return;
             }
-            /*
-            Write Report
-             */
-        try (PrintWriter out = new PrintWriter(new FileWriter(outputPath))) {
-                out.println("Report");
-                out.println("Input: " + inputPath);
-                out.println("Malformed lines skipped: " + malformedLines);
-                out.println();
-
-                //Flagged IPs
-                out.println(" 1. Flagged IPs (Brute force):");
-                out.println();
-                if (flaggedIps.isEmpty()) {
-                    out.println("None");
-                } else {
-                    for (String ip : flaggedIps) {
-                        out.println("IP: "+ ip);
-                        out.println("Max fails in " + WINDOW_MINUTES + " min window: " + maxWindowFailsByIp.getOrDefault(ip, 0));
-                        LocalDateTime start = windowStartByIp.get(ip);
-                        LocalDateTime end = windowEndByIp.get(ip);
-                        if (start != null && end != null) {
-                            out.println("Window: " + start + " to " + end); 
-                        } 
-                            out.println();
+        }
+        String formatName = archived ? "event archive" : format.name();
+
+        DetectorState state = new DetectorState(ipStates);
+        if (idleSeconds > 0) {
+            state.evictIdle(idleSeconds);
+        }
+        if (sketchKb > 0) {
+            state.sketchUsers((long) sketchKb << 10);
+        }
+
+        if (following) {
+            try {
+                follow(inputPath, outputPath, format, checkpointPath, state);
+            } catch (IOException e) {
+                System.out.println("Error reading input file: " + inputPath);
+                System.out.println(e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
 
+        //Read and process each line of the log file
+        try {
+            if (archived) {
+                EventArchive.analyze(inputs.get(0), state);
+            } else if (checkpointPath != null) {
+                resumeFromCheckpoint(inputPath, format, checkpointPath, state);
+            } else if (threads > 1) {
+                ParallelAnalyzer.analyze(Paths.get(inputPath), format, threads, state);
+            } else if (parsers > 0) {
+                PipelinedAnalyzer.analyze(Paths.get(inputPath), format, parsers, state);
+            } else {
+                LineSource source;
+                if (merging) {
+                    //One time-ordered log per host, interleaved by timestamp
+                    source = new MergedLineSource(inputs, format);
+                } else if (!singlePlainFile) {
+                    //Oldest file first, decompressed on a separate thread
+                    source = new ByteLineReader(new PrefetchInputStream(inputs));
+                } else if (mapped) {
+                    source = new MappedLineReader(Paths.get(inputPath));
+                } else {
+                    source = new ByteLineReader(new FileInputStream(inputPath));
+                }
+                if (reorderSeconds >= 0) {
+                    source = new ReorderingLineSource(source, format, reorderSeconds, REORDER_CAPACITY, state.lines);
+                }
+                try (LineSource reader = source) {
+                    if (archivePath != null) {
+                        long events = EventArchive.convert(reader, format, Paths.get(archivePath));
+                        System.out.println("Done. " + events + " events written to: " + archivePath);
+                        return;
                     }
+                    analyze(reader, format, state, 0);
                 }
-                // Flagged usernames
-                out.println("2. Flagged Usernames (Targeted accounts)");
-                out.println();
-                if (flaggedUsers.isEmpty()) {
-                out.println("None");
-                    } else {
-                        for (String user : flaggedUsers) {
-                            out.println("User: " + user + " | total failed logins: " + failedCountByUser.getOrDefault(user, 0));
-                            
-                        }
+            }
+        } catch (IOException e) {
+            //If we can't read the input file, stop and print error
+            System.out.println("Error reading input file: " + inputPath);
+            System.out.println(e.getMessage());
+            return;
+        }
 
-                }
-                out.println();
+        if (writeReport(state, inputPath, formatName, outputPath)) {
+            System.out.println("Done. Report written to: " + outputPath);
+        }
+    }
 
-                //Possible compormise signals
-                out.println("3. Possible Compormises (Success after brute force pattern)");
-                out.println();
-                if (possibleCompormises.isEmpty()) {
-                    out.println("None");
+    /**
+     * Parses a decimal option value.
+     * @return the value, or -1 if it is not a number
+     */
+    private static int parseCount(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
 
-                } else {
-                    for (String s : possibleCompormises) {
-                        out.println(s);
-                    }
+    /**
+     * Writes the incident report. Flagged IPs and users are listed in the order they were flagged.
+     * @return false if the report could not be written
+     */
+    private static boolean writeReport(DetectorState state, String inputPath, String formatName, String outputPath) {
+        try (PrintWriter out = new PrintWriter(new FileWriter(outputPath))) {
+            out.println("Report");
+            out.println("Input: " + inputPath);
+            out.println("Format: " + formatName);
+            out.println("Window mode: " + state.ipStates.accuracy());
+            UserSketch sketch = state.userSketch();
+            out.println("User counts: " + ((sketch == null) ? "exact" : sketch.accuracy()));
+            out.println("Malformed lines skipped: " + state.lines.malformed());
+            for (int reason = EventParser.OK + 1; reason < EventParser.NOT_LOGIN; reason++) {
+                out.println("  " + EventParser.reasonName(reason) + ": " + state.lines.rejected[reason]);
+            }
+            out.println("Non-login lines skipped: " + state.lines.notLogin());
+            out.println("Unknown event types ignored: " + state.lines.unknownTypes);
+            out.println("Late events dropped: " + state.lines.late);
+            out.println("Idle keys evicted: " + state.evictedIps + " IPs, " + state.evictedUsers + " users");
+            out.println("Off-heap detector state: " + (state.offHeapBytes() >> 10) + " KB");
+            out.println();
+
+            //Flagged IPs
+            out.println(" 1. Flagged IPs (Brute force):");
+            out.println();
+            int[] flaggedIps = state.flaggedIps();
+            if (flaggedIps.length == 0) {
+                out.println("None");
+            } else {
+                for (int ip : flaggedIps) {
+                    out.println("IP: "+ state.ips.name(ip));
+                    out.println("Max fails in " + DetectorState.WINDOW_MINUTES + " min window: " + state.ipStates.bestCount(ip));
+                    out.println("Window: " + DetectorState.toDateTime(state.ipStates.bestStart(ip)) + " to " + DetectorState.toDateTime(state.ipStates.bestEnd(ip)));
+                    out.println();
+                }
+            }
+            // Flagged usernames
+            out.println("2. Flagged Usernames (Targeted accounts)");
+            out.println();
+            int[] flaggedUsers = state.flaggedUsers();
+            if (flaggedUsers.length == 0) {
+                out.println("None");
+            } else {
+                for (int user : flaggedUsers) {
+                    out.println("User: " + state.users.name(user) + " | total failed logins: " + state.failedCount(user));
                 }
+            }
+            out.println();
 
-            } catch (IOException e) {
-                System.out.println("Error writing output file: " + outputPath);
-                System.out.println(e.getMessage());
-                return;
+            //Possible compormise signals
+            out.println("3. Possible Compormises (Success after brute force pattern)");
+            out.println();
+            if (state.possibleCompromises.isEmpty()) {
+                out.println("None");
+            } else {
+                for (String s : state.possibleCompromises) {
+                    out.println(s);
+                }
             }
-            System.out.println("Done. Report written to: " + outputPath);
+            out.println();
 
+            //Distinct counts are exact up to DistinctCounts.SET_LIMIT, estimated beyond
+            out.println("4. Password Spray (Many usernames failing from one IP)");
+            out.println();
+            int[] sprayingIps = state.sprayingIps();
+            if (sprayingIps.length == 0) {
+                out.println("None");
+            } else {
+                for (int ip : sprayingIps) {
+                    out.println("IP: " + state.ips.name(ip) + " | distinct users failed: " + state.usersPerIp.estimate(ip));
+                }
+            }
+            out.println();
+
+            out.println("5. Credential Stuffing (One username failing from many IPs)");
+            out.println();
+            int[] stuffedUsers = state.stuffedUsers();
+            if (stuffedUsers.length == 0) {
+                out.println("None");
+            } else {
+                for (int user : stuffedUsers) {
+                    out.println("User: " + state.users.name(user) + " | distinct IPs failed from: " + state.ipsPerUser.estimate(user));
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error writing output file: " + outputPath);
+            System.out.println(e.getMessage());
+            return false;
+        }
+        return true;
     }
 }
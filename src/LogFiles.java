@@ -0,0 +1,163 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Finds the files behind an input argument and opens them.
+ *
+ * The argument is a file, a directory (every regular, non-hidden file in it) or a glob in its
+ * last path element, such as /var/log/auth.log*. Files are returned oldest first in logrotate
+ * order: auth.log.14.gz ... auth.log.2.gz, auth.log.1, auth.log. With dateext, rotated files
+ * are named by date instead (secure-20251201.gz, secure-20251208, secure) and are ordered by it,
+ * before the live file. Rotated files cover consecutive time ranges, so reading them in this
+ * order gives one chronological stream.
+ */
+final class LogFiles {
+    private static final int GZIP_BUFFER_SIZE = 1 << 16;
+
+    //Shortest dateext suffix: YYYYMMDD
+    private static final int MIN_DATE_DIGITS = 8;
+
+    //Rotation order: numbered files, higher suffix first (older); then dated files, older date
+    //first; then live files; ties by name
+    private static final Comparator<Path> OLDEST_FIRST = Comparator
+            .comparingInt((Path p) -> (rotationIndex(p) > 0) ? 0 : (dateSuffix(p) != null) ? 1 : 2)
+            .thenComparingInt(p -> -rotationIndex(p))
+            .thenComparing(p -> (dateSuffix(p) != null) ? dateSuffix(p) : "")
+            .thenComparing(p -> p.getFileName().toString());
+
+    private LogFiles() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * @return the files named by 'input', oldest first. A plain path is returned as-is, even if
+     *         it does not exist, so opening it reports the usual error.
+     */
+    static List<Path> resolve(String input) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (isGlob(input)) {
+            int slash = Math.max(input.lastIndexOf('/'), input.lastIndexOf('\\'));
+            Path dir = Paths.get((slash >= 0) ? input.substring(0, slash + 1) : ".");
+            String pattern = input.substring(slash + 1);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir, pattern)) {
+                addLogFiles(entries, files);
+            }
+        } else {
+            Path path = Paths.get(input);
+            if (!Files.isDirectory(path)) {
+                files.add(path);
+                return files;
+            }
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                addLogFiles(entries, files);
+            }
+        }
+        if (files.isEmpty()) {
+            throw new IOException("No log files match " + input);
+        }
+        files.sort(OLDEST_FIRST);
+        return files;
+    }
+
+    /**
+     * Opens 'file' for reading, decompressing it on the fly if it is gzipped.
+     */
+    static InputStream open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (isCompressed(file)) {
+            return new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+        }
+        return new BufferedInputStream(in, GZIP_BUFFER_SIZE);
+    }
+
+    static boolean isCompressed(Path file) {
+        return file.getFileName().toString().endsWith(".gz");
+    }
+
+    private static void addLogFiles(DirectoryStream<Path> entries, List<Path> files) {
+        for (Path entry : entries) {
+            if (Files.isRegularFile(entry) && !entry.getFileName().toString().startsWith(".")) {
+                files.add(entry);
+            }
+        }
+    }
+
+    private static boolean isGlob(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * logrotate suffix of a file name: 3 for auth.log.3 or auth.log.3.gz, 0 for auth.log and for
+     * dated names.
+     */
+    static int rotationIndex(Path file) {
+        String name = baseName(file);
+        int dot = name.lastIndexOf('.');
+        if (dot < 0 || dot == name.length() - 1 || name.length() - dot > MIN_DATE_DIGITS) {
+            return 0;
+        }
+        int index = 0;
+        for (int i = dot + 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    /**
+     * dateext suffix of a file name, as its digits: "20260101" for secure-20260101 or
+     * auth.log-20260101.gz, "2026010112" for auth.log-2026-01-01-12 (a dateformat with dashes or
+     * dots); null for auth.log and auth.log.3.
+     */
+    static String dateSuffix(Path file) {
+        String name = baseName(file);
+        //The trailing run of digits, '-' and '.', from its first separator on
+        int start = name.length();
+        while (start > 0 && isDateChar(name.charAt(start - 1))) {
+            start--;
+        }
+        while (start < name.length() && Character.isDigit(name.charAt(start))) {
+            start++;
+        }
+        StringBuilder digits = new StringBuilder();
+        for (int i = start; i < name.length(); i++) {
+            if (Character.isDigit(name.charAt(i))) {
+                digits.append(name.charAt(i));
+            }
+        }
+        if (start == 0 || start == name.length() || digits.length() < MIN_DATE_DIGITS) {
+            return null;
+        }
+        return digits.toString();
+    }
+
+    private static boolean isDateChar(char c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '.';
+    }
+
+    /**
+     * @return the file name without a .gz extension
+     */
+    private static String baseName(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".gz") ? name.substring(0, name.length() - 3) : name;
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.function.Supplier;
+
+/**
+ * An input log format: a name for --format and a factory for its EventParser.
+ *
+ * Every format produces the same events (time, FAILED / SUCCESS, user, ip), so the readers and
+ * the rules do not depend on it. Each parser is hand-written over raw bytes, without regexes:
+ * - SIMPLE: "yyyy-MM-dd HH:mm:ss TYPE user=... ip=..." (AuthLineParser)
+ * - SSHD: OpenSSH lines in a traditional or ISO 8601 syslog file (SshdParser)
+ * - RFC5424: OpenSSH lines framed as RFC 5424 syslog messages (Rfc5424Parser)
+ * - JSON: one object per line with time, event, user and ip fields (JsonParser)
+ *
+ * sniff() picks the format of a file from its first lines.
+ */
+interface LogFormat {
+    //Lines read by sniff()
+    int SNIFF_LINES = 50;
+
+    String name();
+
+    /**
+     * @return a new parser; parsers keep per-line caches, so each thread needs its own
+     */
+    EventParser newParser();
+
+    LogFormat SIMPLE = of("simple", AuthLineParser::new);
+    LogFormat SSHD = of("sshd", SshdParser::new);
+    LogFormat RFC5424 = of("rfc5424", Rfc5424Parser::new);
+    LogFormat JSON = of("json", JsonParser::new);
+
+    //In sniff() tie-break order
+    List<LogFormat> ALL = List.of(SIMPLE, SSHD, RFC5424, JSON);
+
+    static LogFormat of(String name, Supplier<EventParser> parsers) {
+        return new LogFormat() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public EventParser newParser() {
+                return parsers.get();
+            }
+
+            @Override
+            public String toString() {
+                return name;
+            }
+        };
+    }
+
+    /**
+     * @return the format called 'name', or null if there is none
+     */
+    static LogFormat named(String name) {
+        for (LogFormat format : ALL) {
+            if (format.name().equals(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the format names, comma separated
+     */
+    static String names() {
+        StringJoiner names = new StringJoiner(", ");
+        for (LogFormat format : ALL) {
+            names.add(format.name());
+        }
+        return names.toString();
+    }
+
+    /**
+     * Guesses the format of 'file' (possibly gzipped) from its first SNIFF_LINES lines. Each
+     * format scores the lines it can frame, i.e. every result except SHORT_LINE and
+     * BAD_TIMESTAMP, so a syslog file full of cron lines is still recognized as sshd. The best
+     * score wins, ties going to the earlier format in ALL; an empty file is SIMPLE.
+     */
+    static LogFormat sniff(Path file) throws IOException {
+        EventParser[] parsers = new EventParser[ALL.size()];
+        for (int f = 0; f < parsers.length; f++) {
+            parsers[f] = ALL.get(f).newParser();
+        }
+        int[] scores = new int[parsers.length];
+        try (ByteLineReader reader = new ByteLineReader(LogFiles.open(file))) {
+            for (int line = 0; line < SNIFF_LINES && reader.next(); line++) {
+                for (int f = 0; f < parsers.length; f++) {
+                    int result = parsers[f].parse(reader.buffer(), reader.lineStart(), reader.lineEnd());
+                    if (result != EventParser.SHORT_LINE && result != EventParser.BAD_TIMESTAMP) {
+                        scores[f]++;
+                    }
+                }
+            }
+        }
+        int best = 0;
+        for (int f = 1; f < scores.length; f++) {
+            if (scores[f] > scores[best]) {
+                best = f;
+            }
+        }
+        return ALL.get(best);
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads lines from a file through memory-mapped segments, so bytes go from the page cache to
+ * the parser without a copy or a charset decode.
+ *
+ * A single mapping is limited to 2 GB, so larger files are walked one segment at a time: when a
+ * line runs past the end of the current segment, the next segment is mapped starting at that
+ * line. Line terminators match ByteLineReader.
+ */
+final class MappedLineReader implements LineSource {
+    static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long segmentSize;
+
+    private MappedByteBuffer segment;
+    private long segmentBase; //file offset of segment position 0
+    private int segmentLimit;
+
+    private int pos; //first segment byte not yet returned
+    private boolean skipLf; //previous line ended with \r, so a leading \n belongs to it
+
+    private int lineStart;
+    private int lineEnd;
+
+    MappedLineReader(Path path) throws IOException {
+        this(path, 0, -1, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Maps the byte range [start, end) of 'path'; end == -1 means the end of the file.
+     */
+    MappedLineReader(Path path, long start, long end, long segmentSize) throws IOException {
+        if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segmentSize must be in 1.." + Integer.MAX_VALUE);
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.fileSize = (end < 0) ? channel.size() : end;
+        this.segmentSize = segmentSize;
+        map(start);
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        while (true) {
+            if (skipLf && pos < segmentLimit) {
+                if (segment.get(pos) == '\n') {
+                    pos++;
+                }
+                skipLf = false;
+            }
+            if (!skipLf) {
+                int i = ByteScanner.BEST.indexOfLineEnd(segment, pos, segmentLimit);
+                if (i < segmentLimit) {
+                    lineStart = pos;
+                    lineEnd = i;
+                    pos = i + 1;
+                    skipLf = (segment.get(i) == '\r');
+                    return true;
+                }
+            }
+
+            boolean lastSegment = segmentBase + segmentLimit >= fileSize;
+            if (lastSegment) {
+                skipLf = false;
+                if (pos < segmentLimit) {
+                    lineStart = pos;
+                    lineEnd = segmentLimit;
+                    pos = segmentLimit;
+                    return true;
+                }
+                return false;
+            }
+            if (pos == 0 && !skipLf) {
+                throw new IOException("Line longer than the mapping segment at offset " + segmentBase);
+            }
+            //Remap so the unfinished line starts at the beginning of the new segment
+            map(segmentBase + pos);
+        }
+    }
+
+    @Override
+    public ByteBuffer buffer() {
+        return segment;
+    }
+
+    @Override
+    public int lineStart() {
+        return lineStart;
+    }
+
+    @Override
+    public int lineEnd() {
+        return lineEnd;
+    }
+
+    private void map(long offset) throws IOException {
+        long length = Math.min(segmentSize, fileSize - offset);
+        segment = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        segmentBase = offset;
+        segmentLimit = (int) length;
+        pos = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
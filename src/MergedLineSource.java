@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Merges several logs, each in time order on its own, into one stream in time order.
+ *
+ * Every source is read through its own PrefetchInputStream, so each has a background thread
+ * keeping a few blocks ahead and the merge rarely waits on I/O. The current line of each source
+ * sits in a binary min-heap keyed by (timestamp, source index); next() hands out the top line
+ * and advances only that source. Ties keep source order, so the output is deterministic.
+ *
+ * A line without a valid timestamp takes the time of the line before it in the same source, so
+ * it is passed through in place and counted as malformed downstream as usual.
+ */
+final class MergedLineSource implements LineSource {
+    private final LineSource[] sources;
+    private final long[] keys; //timestamp of each source's current line
+    private final EventParser parser;
+
+    //Binary min-heap of source indices with a current line
+    private final int[] heap;
+    private int heapSize;
+
+    private int current = -1; //source of the line last returned
+
+    /**
+     * Opens one prefetching reader per file; timestamps are read with 'format'.
+     */
+    MergedLineSource(List<Path> files, LogFormat format) throws IOException {
+        parser = format.newParser();
+        int count = files.size();
+        sources = new LineSource[count];
+        keys = new long[count];
+        heap = new int[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = Long.MIN_VALUE;
+            sources[i] = new ByteLineReader(new PrefetchInputStream(List.of(files.get(i))));
+        }
+        for (int i = 0; i < count; i++) {
+            if (advance(i)) {
+                heap[heapSize] = i;
+                siftUp(heapSize++);
+            }
+        }
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (current >= 0) {
+            //The line returned last time is done; move its source on
+            if (advance(current)) {
+                siftDown(0);
+            } else {
+                heap[0] = heap[--heapSize];
+                if (heapSize > 0) {
+                    siftDown(0);
+                }
+            }
+        }
+        if (heapSize == 0) {
+            current = -1;
+            return false;
+        }
+        current = heap[0];
+        return true;
+    }
+
+    @Override
+    public ByteBuffer buffer() {
+        return sources[current].buffer();
+    }
+
+    @Override
+    public int lineStart() {
+        return sources[current].lineStart();
+    }
+
+    @Override
+    public int lineEnd() {
+        return sources[current].lineEnd();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException first = null;
+        for (LineSource source : sources) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                if (first == null) {
+                    first = e;
+                }
+            }
+        }
+        if (first != null) {
+            throw first;
+        }
+    }
+
+    /**
+     * Reads the next line of source 'i' and updates its key.
+     * @return false if the source is exhausted
+     */
+    private boolean advance(int i) throws IOException {
+        LineSource source = sources[i];
+        if (!source.next()) {
+            return false;
+        }
+        if (parser.parse(source.buffer(), source.lineStart(), source.lineEnd()) == EventParser.OK) {
+            keys[i] = parser.epochSecond;
+        }
+        return true;
+    }
+
+    private boolean less(int a, int b) {
+        return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
+    }
+
+    private void siftUp(int index) {
+        int source = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!less(source, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = source;
+    }
+
+    private void siftDown(int index) {
+        int source = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], source)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = source;
+    }
+}
@@ -0,0 +1,92 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A growable array of fixed-size slots outside the Java heap.
+ *
+ * Slots live in direct ByteBuffer pages of about PAGE_BYTES each, allocated as higher indexes
+ * are first used and never moved, so growing costs no copy and the heap holds only one small
+ * buffer object per page however many slots there are. New slots read as all zero bytes.
+ * Fields are addressed as (slot index, byte offset in the slot), in native byte order.
+ */
+final class OffHeapSlots {
+    private static final int PAGE_BYTES = 1 << 16;
+
+    private final int slotSize;
+    private final int pageShift; //slots per page = 1 << pageShift
+    private final int pageMask;
+    private ByteBuffer[] pages = new ByteBuffer[8];
+    private int pageCount;
+
+    OffHeapSlots(int slotSize) {
+        this.slotSize = slotSize;
+        int shift = 0;
+        while (shift < 30 && ((long) slotSize << (shift + 1)) <= PAGE_BYTES) {
+            shift++;
+        }
+        pageShift = shift;
+        pageMask = (1 << shift) - 1;
+    }
+
+    /**
+     * Makes slots 0 .. index usable.
+     */
+    void ensure(int index) {
+        int page = index >>> pageShift;
+        while (pageCount <= page) {
+            if (pageCount == pages.length) {
+                pages = Arrays.copyOf(pages, pageCount * 2);
+            }
+            pages[pageCount++] = ByteBuffer.allocateDirect(slotSize << pageShift).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * @return the number of usable slots
+     */
+    int capacity() {
+        return pageCount << pageShift;
+    }
+
+    /**
+     * @return the direct memory held, in bytes
+     */
+    long bytes() {
+        return (long) pageCount * (slotSize << pageShift);
+    }
+
+    long getLong(int index, int field) {
+        return pages[index >>> pageShift].getLong((index & pageMask) * slotSize + field);
+    }
+
+    void putLong(int index, int field, long value) {
+        pages[index >>> pageShift].putLong((index & pageMask) * slotSize + field, value);
+    }
+
+    int getInt(int index, int field) {
+        return pages[index >>> pageShift].getInt((index & pageMask) * slotSize + field);
+    }
+
+    void putInt(int index, int field, int value) {
+        pages[index >>> pageShift].putInt((index & pageMask) * slotSize + field, value);
+    }
+
+    byte getByte(int index, int field) {
+        return pages[index >>> pageShift].get((index & pageMask) * slotSize + field);
+    }
+
+    void putByte(int index, int field, byte value) {
+        pages[index >>> pageShift].put((index & pageMask) * slotSize + field, value);
+    }
+
+    /**
+     * Copies 'length' bytes from one slot to another (possibly of another OffHeapSlots).
+     */
+    void copyTo(int index, int field, OffHeapSlots target, int targetIndex, int targetField, int length) {
+        ByteBuffer from = pages[index >>> pageShift];
+        ByteBuffer to = target.pages[targetIndex >>> target.pageShift];
+        to.put((targetIndex & target.pageMask) * target.slotSize + targetField,
+                from, (index & pageMask) * slotSize + field, length);
+    }
+}
@@ -0,0 +1,437 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Analyzes one log file on several cores.
+ *
+ * The file is cut into chunks at '\n' boundaries. Each chunk is parsed on its own thread and
+ * reduced to what the merge needs, all of it off the Java heap (OffHeapSlots), so a chunk costs
+ * memory per key rather than per failure:
+ * - rule 1: each IP's failures in its first reach() seconds in the chunk (its head), which
+ *   earlier chunks' windows may still reach, as (seq, time); later failures go through a rolling
+ *   window of the chunk's own, whose best window, flag and final window are taken over as a whole
+ * - rule 2: per user, the failure count and the sequence numbers of the first
+ *   USER_FAIL_THRESHOLD failures
+ * - rules 4 and 5: the first failure of each distinct (user, IP) pair, in line order; repeats
+ *   change no distinct count
+ * - the successes
+ * The chunks are then merged in file order: heads are replayed through the shared windows, so
+ * windows spanning chunk boundaries come out exactly as in a sequential run.
+ *
+ * A head only covers earlier chunks' failures up to reach() seconds older than its IP's first
+ * failure in the chunk, which is all of them for time-ordered input. If an earlier chunk has a
+ * newer failure of that IP, the chunk is read again on the merge thread and fed event by event.
+ *
+ * Sequence numbers are (chunk index << CHUNK_SHIFT) | line index within the chunk, which keeps
+ * them in file order.
+ */
+final class ParallelAnalyzer {
+    private static final int CHUNK_SHIFT = 40;
+
+    //Per chunk IP: first and newest failure time, newest time when its head ended
+    private static final int IP_FIRST = 0;
+    private static final int IP_NEWEST = 8;
+    private static final int IP_HEAD_END = 16;
+    private static final int IP_STATE = 24; //NO_FAILURE, IN_HEAD or PAST_HEAD
+    private static final int IP_LAST_HEAD = 28; //newest head record
+    private static final int IP_SLOT = 32;
+    private static final int NO_FAILURE = 0;
+    private static final int IN_HEAD = 1;
+    private static final int PAST_HEAD = 2;
+
+    //Per chunk user: failure count and the first sequence numbers
+    private static final int USER_COUNT = 0;
+    private static final int USER_SEQS = 8;
+    private static final int USER_SLOT = USER_SEQS + DetectorState.USER_FAIL_THRESHOLD * Long.BYTES;
+
+    //Records: head failures (seq, time, ip, the IP's previous head record or -1), pairs
+    //(seq, user, ip), successes (seq, time, user, ip)
+    private static final int SEQ = 0;
+    private static final int TIME = 8;
+    private static final int HEAD_IP = 16;
+    private static final int HEAD_PREV = 20;
+    private static final int PAIR_USER = 8;
+    private static final int PAIR_IP = 12;
+    private static final int SUCCESS_USER = 16;
+    private static final int SUCCESS_IP = 20;
+
+    //Per shared IP while merging: newest failure time of the chunks merged so far
+    private static final int NEWEST_TIME = 0;
+    private static final int NEWEST_SEEN = 8;
+    private static final int NEWEST_SLOT = 16;
+
+    private ParallelAnalyzer() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Reduced state of one chunk. Keys are ids in the chunk's own symbol tables and are
+     * remapped to the shared tables when merging.
+     */
+    private static final class Chunk {
+        final int index;
+        final long start;
+        final long end;
+        final SymbolTable users = new SymbolTable();
+        final IpTable ips = new IpTable();
+        final IpStore windows; //rule 1 past each IP's head
+        final OffHeapSlots ipScan = new OffHeapSlots(IP_SLOT);
+        final OffHeapSlots userFailures = new OffHeapSlots(USER_SLOT);
+        final OffHeapSlots heads = new OffHeapSlots(24);
+        int headCount;
+        private int[] chain = new int[16]; //head records of one IP, see endHead
+        final OffHeapSlots pairs = new OffHeapSlots(16);
+        int pairCount;
+        private OffHeapSlots pairIndex = newIndex(64); //pair + 1, 0 = empty
+        private int pairIndexCapacity = 64;
+        final OffHeapSlots successes = new OffHeapSlots(24);
+        int successCount;
+        final LineCounts lines = new LineCounts();
+
+        Chunk(int index, long start, long end, IpStore windows) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+            this.windows = windows;
+        }
+
+        void failure(long seq, long time, int user, int ip) {
+            ipScan.ensure(ip);
+            int state = ipScan.getInt(ip, IP_STATE);
+            boolean first = state == NO_FAILURE;
+            long newest = first ? time : Math.max(time, ipScan.getLong(ip, IP_NEWEST));
+            if (first) {
+                ipScan.putLong(ip, IP_FIRST, time);
+                state = IN_HEAD;
+            }
+            ipScan.putLong(ip, IP_NEWEST, newest);
+            if (state == IN_HEAD && newest - ipScan.getLong(ip, IP_FIRST) >= windows.reach()) {
+                //Nothing before the chunk reaches this far, if it is older than the first failure
+                state = PAST_HEAD;
+                ipScan.putLong(ip, IP_HEAD_END, newest);
+                endHead(ip);
+            }
+            ipScan.putInt(ip, IP_STATE, state);
+            if (state == IN_HEAD) {
+                heads.ensure(headCount);
+                heads.putLong(headCount, SEQ, seq);
+                heads.putLong(headCount, TIME, time);
+                heads.putInt(headCount, HEAD_IP, ip);
+                heads.putInt(headCount, HEAD_PREV, first ? -1 : ipScan.getInt(ip, IP_LAST_HEAD));
+                ipScan.putInt(ip, IP_LAST_HEAD, headCount);
+                headCount++;
+            } else {
+                windows.failure(ip, seq, time);
+            }
+
+            userFailures.ensure(user);
+            int count = userFailures.getInt(user, USER_COUNT);
+            if (count < DetectorState.USER_FAIL_THRESHOLD) {
+                userFailures.putLong(user, USER_SEQS + count * Long.BYTES, seq);
+            }
+            userFailures.putInt(user, USER_COUNT, count + 1);
+
+            addPair(seq, user, ip);
+        }
+
+        /**
+         * Starts the chunk's window of 'ip' with its head, so the window is right from the next
+         * failure on, and forgets the best window and flag the head gave it.
+         */
+        private void endHead(int ip) {
+            int n = 0;
+            for (int h = ipScan.getInt(ip, IP_LAST_HEAD); h >= 0; h = heads.getInt(h, HEAD_PREV)) {
+                if (n == chain.length) {
+                    chain = Arrays.copyOf(chain, n * 2);
+                }
+                chain[n++] = h;
+            }
+            while (n > 0) {
+                int h = chain[--n];
+                windows.failure(ip, heads.getLong(h, SEQ), heads.getLong(h, TIME));
+            }
+            windows.clearBest(ip);
+        }
+
+        void success(long seq, long time, int user, int ip) {
+            successes.ensure(successCount);
+            successes.putLong(successCount, SEQ, seq);
+            successes.putLong(successCount, TIME, time);
+            successes.putInt(successCount, SUCCESS_USER, user);
+            successes.putInt(successCount, SUCCESS_IP, ip);
+            successCount++;
+        }
+
+        /**
+         * Records the pair unless it was seen before in this chunk.
+         */
+        private void addPair(long seq, int user, int ip) {
+            int mask = pairIndexCapacity - 1;
+            int slot = pairSlot(user, ip, mask);
+            for (int entry; (entry = pairIndex.getInt(slot, 0)) != 0; slot = (slot + 1) & mask) {
+                if (pairs.getInt(entry - 1, PAIR_USER) == user && pairs.getInt(entry - 1, PAIR_IP) == ip) {
+                    return;
+                }
+            }
+            pairs.ensure(pairCount);
+            pairs.putLong(pairCount, SEQ, seq);
+            pairs.putInt(pairCount, PAIR_USER, user);
+            pairs.putInt(pairCount, PAIR_IP, ip);
+            pairIndex.putInt(slot, 0, ++pairCount);
+            if (pairCount * 2 > pairIndexCapacity) {
+                pairIndexCapacity *= 2;
+                pairIndex = newIndex(pairIndexCapacity);
+                mask = pairIndexCapacity - 1;
+                for (int pair = 0; pair < pairCount; pair++) {
+                    slot = pairSlot(pairs.getInt(pair, PAIR_USER), pairs.getInt(pair, PAIR_IP), mask);
+                    while (pairIndex.getInt(slot, 0) != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    pairIndex.putInt(slot, 0, pair + 1);
+                }
+            }
+        }
+
+        private static int pairSlot(int user, int ip, int mask) {
+            long key = ((long) user << 32) | (ip & 0xFFFFFFFFL);
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+
+        private static OffHeapSlots newIndex(int capacity) {
+            OffHeapSlots index = new OffHeapSlots(Integer.BYTES);
+            index.ensure(capacity - 1);
+            return index;
+        }
+    }
+
+    /**
+     * Analyzes 'path', in 'format', with 'threads' workers and merges the result into 'state'.
+     */
+    static void analyze(Path path, LogFormat format, int threads, DetectorState state) throws IOException {
+        long[] bounds = chunkBounds(path, threads);
+        int chunks = bounds.length - 1;
+
+        ExecutorService pool = Executors.newFixedThreadPool(chunks);
+        try {
+            List<Future<Chunk>> futures = new ArrayList<>();
+            for (int c = 0; c < chunks; c++) {
+                final int index = c;
+                futures.add(pool.submit(() -> scan(path, format, index, bounds[index], bounds[index + 1], state.ipStates.name())));
+            }
+
+            //Merged in file order as they complete; a merged chunk is dropped right away
+            OffHeapSlots newest = new OffHeapSlots(NEWEST_SLOT); //per shared IP, see merge
+            for (int c = 0; c < chunks; c++) {
+                Chunk chunk = futures.get(c).get();
+                futures.set(c, null);
+                merge(chunk, path, format, state, newest);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while analyzing " + path);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Parses and reduces the lines of path[start, end).
+     */
+    private static Chunk scan(Path path, LogFormat format, int index, long start, long end, String window) throws IOException {
+        Chunk chunk = new Chunk(index, start, end, IpStore.named(window));
+        EventParser parser = format.newParser();
+        long seq = (long) index << CHUNK_SHIFT;
+        try (MappedLineReader reader = new MappedLineReader(path, start, end, MappedLineReader.DEFAULT_SEGMENT_SIZE)) {
+            while (reader.next()) {
+                seq++;
+                ByteBuffer buf = reader.buffer();
+                int result = parser.parse(buf, reader.lineStart(), reader.lineEnd());
+                if (result != EventParser.OK) {
+                    chunk.lines.rejected[result]++;
+                    continue;
+                }
+                switch (parser.type) {
+                    case EventParser.TYPE_FAILED: {
+                        int user = chunk.users.intern(buf, parser.userStart, parser.userEnd);
+                        int ip = chunk.ips.intern(buf, parser.ipStart, parser.ipEnd);
+                        chunk.failure(seq, parser.epochSecond, user, ip);
+                        break;
+                    }
+                    case EventParser.TYPE_SUCCESS: {
+                        int user = chunk.users.intern(buf, parser.userStart, parser.userEnd);
+                        int ip = chunk.ips.intern(buf, parser.ipStart, parser.ipEnd);
+                        chunk.success(seq, parser.epochSecond, user, ip);
+                        break;
+                    }
+                    default:
+                        chunk.lines.unknownTypes++;
+                        break;
+                }
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Merges one chunk into 'state', after every chunk before it. Its successes go last, so each
+     * one sees the flags raised before it; flags of later chunks have later sequence numbers,
+     * which DetectorState.success ignores.
+     * @param newest newest failure time per shared IP id, updated here
+     */
+    private static void merge(Chunk chunk, Path path, LogFormat format, DetectorState state, OffHeapSlots newest) throws IOException {
+        state.lines.add(chunk.lines);
+        int[] ips = new int[chunk.ips.size()]; //local id -> shared id
+        boolean reread = false;
+        for (int local = 0; local < ips.length; local++) {
+            int ip = state.ips.intern(chunk.ips, local);
+            ips[local] = ip;
+            newest.ensure(ip);
+            if (failureState(chunk, local) == PAST_HEAD && newest.getInt(ip, NEWEST_SEEN) != 0
+                    && newest.getLong(ip, NEWEST_TIME) + chunk.windows.reach() > chunk.ipScan.getLong(local, IP_HEAD_END)) {
+                reread = true; //an earlier chunk's failure may reach past the head
+            }
+        }
+        int[] users = new int[chunk.users.size()];
+        for (int local = 0; local < users.length; local++) {
+            users[local] = state.users.intern(chunk.users, local);
+        }
+
+        if (reread) {
+            reread(chunk, path, format, state);
+        } else {
+            for (int h = 0; h < chunk.headCount; h++) {
+                state.ipFailure(chunk.heads.getLong(h, SEQ), chunk.heads.getLong(h, TIME), ips[chunk.heads.getInt(h, HEAD_IP)]);
+            }
+            for (int local = 0; local < ips.length; local++) {
+                if (failureState(chunk, local) == PAST_HEAD) {
+                    state.ipStates.absorb(ips[local], chunk.windows, local);
+                }
+            }
+            long[] firstSeqs = new long[DetectorState.USER_FAIL_THRESHOLD];
+            for (int local = 0; local < users.length && local < chunk.userFailures.capacity(); local++) {
+                int count = chunk.userFailures.getInt(local, USER_COUNT);
+                if (count == 0) {
+                    continue;
+                }
+                for (int i = 0; i < Math.min(count, firstSeqs.length); i++) {
+                    firstSeqs[i] = chunk.userFailures.getLong(local, USER_SEQS + i * Long.BYTES);
+                }
+                state.userFailures(users[local], count, firstSeqs);
+            }
+            for (int p = 0; p < chunk.pairCount; p++) {
+                long seq = chunk.pairs.getLong(p, SEQ);
+                int user = users[chunk.pairs.getInt(p, PAIR_USER)];
+                int ip = ips[chunk.pairs.getInt(p, PAIR_IP)];
+                state.sprayFailure(seq, ip, state.users.fingerprint(user));
+                state.stuffingFailure(seq, user, ip);
+            }
+        }
+        for (int local = 0; local < ips.length; local++) {
+            if (failureState(chunk, local) != NO_FAILURE) {
+                int ip = ips[local];
+                long time = chunk.ipScan.getLong(local, IP_NEWEST);
+                if (newest.getInt(ip, NEWEST_SEEN) == 0 || time > newest.getLong(ip, NEWEST_TIME)) {
+                    newest.putLong(ip, NEWEST_TIME, time);
+                    newest.putInt(ip, NEWEST_SEEN, 1);
+                }
+            }
+        }
+
+        for (int i = 0; i < chunk.successCount; i++) {
+            state.success(chunk.successes.getLong(i, SEQ), chunk.successes.getLong(i, TIME),
+                    users[chunk.successes.getInt(i, SUCCESS_USER)], ips[chunk.successes.getInt(i, SUCCESS_IP)]);
+        }
+    }
+
+    private static int failureState(Chunk chunk, int ip) {
+        return (ip < chunk.ipScan.capacity()) ? chunk.ipScan.getInt(ip, IP_STATE) : NO_FAILURE;
+    }
+
+    /**
+     * Feeds the failures of a chunk whose heads fall short to 'state' one by one, reading its
+     * lines again.
+     */
+    private static void reread(Chunk chunk, Path path, LogFormat format, DetectorState state) throws IOException {
+        EventParser parser = format.newParser();
+        long seq = (long) chunk.index << CHUNK_SHIFT;
+        try (MappedLineReader reader = new MappedLineReader(path, chunk.start, chunk.end, MappedLineReader.DEFAULT_SEGMENT_SIZE)) {
+            while (reader.next()) {
+                seq++;
+                ByteBuffer buf = reader.buffer();
+                if (parser.parse(buf, reader.lineStart(), reader.lineEnd()) == EventParser.OK && parser.type == EventParser.TYPE_FAILED) {
+                    int user = state.users.intern(buf, parser.userStart, parser.userEnd);
+                    int ip = state.ips.intern(buf, parser.ipStart, parser.ipEnd);
+                    state.failed(seq, parser.epochSecond, user, ip);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits the file into up to 'parts' ranges, each starting right after a '\n'.
+     * @return ascending offsets; range i is [bounds[i], bounds[i + 1])
+     */
+    private static long[] chunkBounds(Path path, int parts) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<Long> bounds = new ArrayList<>();
+            bounds.add(0L);
+            ByteBuffer probe = ByteBuffer.allocate(8192);
+            for (int i = 1; i < parts; i++) {
+                long nominal = size * i / parts;
+                long prev = bounds.get(bounds.size() - 1);
+                if (nominal <= prev) {
+                    continue;
+                }
+                long next = nextLineStart(channel, nominal, size, probe);
+                if (next > prev && next < size) {
+                    bounds.add(next);
+                }
+            }
+            bounds.add(size);
+            long[] result = new long[bounds.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = bounds.get(i);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * First offset >= 'offset' that follows a '\n', or 'size' if there is none.
+     */
+    private static long nextLineStart(FileChannel channel, long offset, long size, ByteBuffer probe) throws IOException {
+        long pos = offset - 1;
+        while (pos < size) {
+            probe.clear();
+            int n = channel.read(probe, pos);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (probe.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+}
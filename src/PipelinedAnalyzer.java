@@ -0,0 +1,347 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Analyzes one log file as a three stage pipeline:
+ * - a reader thread fills blocks of whole lines from the file
+ * - 'parsers' threads turn each block into compact events (type, time, user/ip offsets)
+ * - the calling thread interns the keys and applies the rules, block by block in file order
+ *
+ * The stages share one ring of RING_SIZE preallocated slots and coordinate through sequence
+ * counters only (no locks, no queues): a slot moves from reader to parser to detector and back,
+ * each block being one batch of hand-offs. Parsers finish out of order, but the detector takes
+ * blocks strictly in sequence, so the report is identical to a sequential run.
+ *
+ * Waiting stages spin briefly, then yield, then park, so idle stages do not burn a core.
+ */
+final class PipelinedAnalyzer {
+    static final int BLOCK_SIZE = 1 << 18;
+    private static final int RING_SIZE = 16; //power of two
+    private static final int MASK = RING_SIZE - 1;
+    private static final int INITIAL_EVENTS = 1024;
+
+    //Back-off while waiting on another stage
+    private static final int SPIN_LIMIT = 100;
+    private static final int YIELD_LIMIT = 200;
+    private static final long PARK_NANOS = 50_000;
+
+    /**
+     * One block of input and, once parsed, its events. Arrays grow as needed and are kept
+     * for the next block using the slot.
+     */
+    private static final class Slot {
+        byte[] data = new byte[BLOCK_SIZE];
+        ByteBuffer view = ByteBuffer.wrap(data);
+        int length; //bytes of whole lines in this block
+        int filled; //bytes read; [length, filled) is the start of the next block's first line
+
+        //Parser output
+        int lineCount;
+        int events;
+        byte[] types = new byte[INITIAL_EVENTS];
+        long[] times = new long[INITIAL_EVENTS];
+        int[] lineIndexes = new int[INITIAL_EVENTS];
+        int[] userStarts = new int[INITIAL_EVENTS];
+        int[] userEnds = new int[INITIAL_EVENTS];
+        int[] ipStarts = new int[INITIAL_EVENTS];
+        int[] ipEnds = new int[INITIAL_EVENTS];
+        final LineCounts lines = new LineCounts();
+
+        void addEvent(int lineIndex, EventParser parser) {
+            if (events == types.length) {
+                int capacity = events * 2;
+                types = Arrays.copyOf(types, capacity);
+                times = Arrays.copyOf(times, capacity);
+                lineIndexes = Arrays.copyOf(lineIndexes, capacity);
+                userStarts = Arrays.copyOf(userStarts, capacity);
+                userEnds = Arrays.copyOf(userEnds, capacity);
+                ipStarts = Arrays.copyOf(ipStarts, capacity);
+                ipEnds = Arrays.copyOf(ipEnds, capacity);
+            }
+            types[events] = parser.type;
+            times[events] = parser.epochSecond;
+            lineIndexes[events] = lineIndex;
+            userStarts[events] = parser.userStart;
+            userEnds[events] = parser.userEnd;
+            ipStarts[events] = parser.ipStart;
+            ipEnds[events] = parser.ipEnd;
+            events++;
+        }
+    }
+
+    private final Path path;
+    private final LogFormat format;
+    private final Slot[] slots = new Slot[RING_SIZE];
+
+    private final AtomicLong published = new AtomicLong(); //blocks filled by the reader
+    private volatile long end = Long.MAX_VALUE; //total number of blocks, once known
+    private final AtomicLong claimed = new AtomicLong(); //next block for a parser to take
+    private final AtomicLongArray parsed = new AtomicLongArray(RING_SIZE); //block parsed in each slot
+    private final AtomicLong consumed = new AtomicLong(); //blocks finished by the detector
+
+    private volatile Throwable failure;
+
+    private PipelinedAnalyzer(Path path, LogFormat format) {
+        this.path = path;
+        this.format = format;
+        for (int i = 0; i < RING_SIZE; i++) {
+            slots[i] = new Slot();
+            parsed.set(i, -1);
+        }
+    }
+
+    /**
+     * Analyzes 'path', in 'format', with one reader thread and 'parsers' parser threads,
+     * applying the rules to 'state' on the calling thread.
+     */
+    static void analyze(Path path, LogFormat format, int parsers, DetectorState state) throws IOException {
+        new PipelinedAnalyzer(path, format).run(parsers, state);
+    }
+
+    private void run(int parsers, DetectorState state) throws IOException {
+        Thread[] threads = new Thread[parsers + 1];
+        threads[0] = new Thread(this::readBlocks, "pipeline-reader");
+        for (int i = 1; i <= parsers; i++) {
+            threads[i] = new Thread(this::parseBlocks, "pipeline-parser-" + i);
+        }
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.start();
+        }
+
+        try {
+            detect(state);
+        } catch (RuntimeException | Error e) {
+            fail(e);
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+                break;
+            }
+        }
+
+        Throwable error = failure;
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if (error instanceof InterruptedException) {
+            throw new InterruptedIOException("Interrupted while analyzing " + path);
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+    }
+
+    /**
+     * Detector stage: applies the events of each block in file order.
+     */
+    private void detect(DetectorState state) {
+        long seqBase = 0; //line number of the block's first line, minus one
+        for (long block = 0; ; block++) {
+            int index = (int) block & MASK;
+            int spins = 0;
+            while (parsed.get(index) != block) {
+                if (block >= end || failure != null) {
+                    return;
+                }
+                spins = idle(spins);
+            }
+
+            Slot slot = slots[index];
+            ByteBuffer buf = slot.view;
+            for (int e = 0; e < slot.events; e++) {
+                long seq = seqBase + slot.lineIndexes[e] + 1;
+                if (slot.types[e] == EventParser.TYPE_FAILED) {
+                    state.failed(seq, slot.times[e], buf, slot.userStarts[e], slot.userEnds[e], slot.ipStarts[e], slot.ipEnds[e]);
+                } else {
+                    state.success(seq, slot.times[e], buf, slot.userStarts[e], slot.userEnds[e], slot.ipStarts[e], slot.ipEnds[e]);
+                }
+            }
+            state.lines.add(slot.lines);
+            seqBase += slot.lineCount;
+            consumed.set(block + 1);
+        }
+    }
+
+    /**
+     * Reader stage: fills slots with whole lines. The partial line at the end of a block is
+     * carried over to the start of the next one.
+     */
+    private void readBlocks() {
+        long block = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Slot previous = null;
+            while (true) {
+                int spins = 0;
+                while (consumed.get() <= block - RING_SIZE) {
+                    if (failure != null) {
+                        return;
+                    }
+                    spins = idle(spins);
+                }
+                Slot slot = slots[(int) block & MASK];
+
+                int carry = 0;
+                if (previous != null) {
+                    carry = previous.filled - previous.length;
+                    if (carry > slot.data.length / 2) {
+                        slot.data = new byte[carry * 2];
+                        slot.view = ByteBuffer.wrap(slot.data);
+                    }
+                    System.arraycopy(previous.data, previous.length, slot.data, 0, carry);
+                }
+                int filled = carry;
+                int searchFrom = Math.max(carry - 1, 0); //the carry may end in a held back '\r'
+                boolean eof = false;
+                int cut = -1; //end of the last whole line
+                while (true) {
+                    while (filled < slot.data.length) {
+                        int n = channel.read(ByteBuffer.wrap(slot.data, filled, slot.data.length - filled));
+                        if (n < 0) {
+                            eof = true;
+                            break;
+                        }
+                        filled += n;
+                    }
+                    if (eof) {
+                        break;
+                    }
+                    cut = lastLineEnd(slot.data, searchFrom, filled);
+                    if (cut >= 0) {
+                        break;
+                    }
+                    //A line longer than the block: make room and keep reading
+                    searchFrom = filled - 1;
+                    slot.data = Arrays.copyOf(slot.data, slot.data.length * 2);
+                    slot.view = ByteBuffer.wrap(slot.data);
+                }
+                slot.filled = filled;
+                slot.length = eof ? filled : cut;
+
+                published.set(block + 1);
+                block++;
+                if (eof) {
+                    end = block;
+                    return;
+                }
+                previous = slot;
+            }
+        } catch (Throwable e) {
+            fail(e);
+        } finally {
+            if (end == Long.MAX_VALUE) {
+                end = block;
+            }
+        }
+    }
+
+    /**
+     * Parser stage: claims the next unparsed block and records its events.
+     */
+    private void parseBlocks() {
+        try {
+            EventParser parser = format.newParser();
+            while (true) {
+                long block = claimed.getAndIncrement();
+                int spins = 0;
+                while (published.get() <= block) {
+                    if (block >= end || failure != null) {
+                        return;
+                    }
+                    spins = idle(spins);
+                }
+                int index = (int) block & MASK;
+                parse(slots[index], parser);
+                parsed.set(index, block);
+            }
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Splits slot.data[0, length) into lines (terminators as in ByteLineReader) and parses them.
+     */
+    private static void parse(Slot slot, EventParser parser) {
+        slot.events = 0;
+        Arrays.fill(slot.lines.rejected, 0);
+        slot.lines.unknownTypes = 0;
+
+        byte[] data = slot.data;
+        ByteBuffer buf = slot.view;
+        int length = slot.length;
+        int lineIndex = 0;
+        int start = 0;
+        int i = 0;
+        while (start < length) {
+            i = ByteScanner.BEST.indexOfLineEnd(buf, i, length);
+            int result = parser.parse(buf, start, i);
+            if (result != EventParser.OK) {
+                slot.lines.rejected[result]++;
+            } else {
+                switch (parser.type) {
+                    case EventParser.TYPE_FAILED:
+                    case EventParser.TYPE_SUCCESS:
+                        slot.addEvent(lineIndex, parser);
+                        break;
+                    default:
+                        slot.lines.unknownTypes++;
+                        break;
+                }
+            }
+            lineIndex++;
+            if (i < length && data[i] == '\r' && i + 1 < length && data[i + 1] == '\n') {
+                i++;
+            }
+            i++;
+            start = i;
+        }
+        slot.lineCount = lineIndex;
+    }
+
+    /**
+     * @return the offset just past the last line terminator ('\n', '\r' or "\r\n") in
+     *         data[from, to), or -1 if there is none. A '\r' at to - 1 does not count: the '\n'
+     *         of its "\r\n" may not have been read yet.
+     */
+    private static int lastLineEnd(byte[] data, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (data[i] == '\n' || (data[i] == '\r' && i < to - 1)) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    private static int idle(int spins) {
+        if (spins < SPIN_LIMIT) {
+            Thread.onSpinWait();
+        } else if (spins < YIELD_LIMIT) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return spins + 1;
+    }
+}
@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads (and gunzips) a list of files on a background thread and hands the bytes over in
+ * blocks, so decompression and I/O overlap with parsing on the caller's thread.
+ *
+ * The files are concatenated in list order. A file whose last line has no terminator gets a
+ * '\n' appended, so its last line never runs into the first line of the next file.
+ *
+ * A fixed set of BLOCKS buffers circulates between the two threads: the reader fills free
+ * blocks, the caller returns them once consumed. Memory stays at BLOCKS * BLOCK_SIZE however
+ * far the reader gets ahead.
+ */
+final class PrefetchInputStream extends InputStream {
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final int BLOCKS = 8;
+
+    private static final class Block {
+        final byte[] data = new byte[BLOCK_SIZE];
+        int length;
+    }
+
+    //Marks the end of the input (or a read error) in the 'full' queue
+    private static final Block END = new Block();
+
+    private final BlockingQueue<Block> free = new ArrayBlockingQueue<>(BLOCKS);
+    private final BlockingQueue<Block> full = new ArrayBlockingQueue<>(BLOCKS + 1);
+    private final Thread reader;
+    private volatile IOException error; //set by the reader before it queues END
+
+    private Block current; //block being consumed
+    private int pos;
+    private boolean eof;
+
+    PrefetchInputStream(List<Path> files) {
+        for (int i = 0; i < BLOCKS; i++) {
+            free.add(new Block());
+        }
+        reader = new Thread(() -> readAll(files), "log-prefetch");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return current.data[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current.data, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public void close() {
+        reader.interrupt();
+    }
+
+    /**
+     * Makes 'current' a block with unread bytes, waiting for the reader if needed.
+     * @return false at the end of the last file
+     */
+    private boolean ensureData() throws IOException {
+        while (current == null || pos == current.length) {
+            if (eof) {
+                return false;
+            }
+            if (current != null) {
+                free.add(current);
+                current = null;
+            }
+            Block next;
+            try {
+                next = full.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for input");
+            }
+            if (next == END) {
+                eof = true;
+                if (error != null) {
+                    throw error;
+                }
+                return false;
+            }
+            current = next;
+            pos = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Reader thread: streams every file into blocks, then queues END.
+     */
+    private void readAll(List<Path> files) {
+        try {
+            Block block = free.take();
+            block.length = 0;
+            for (Path file : files) {
+                int last = '\n'; //last byte of the file; an empty file needs no terminator
+                try (InputStream in = LogFiles.open(file)) {
+                    while (true) {
+                        if (block.length == BLOCK_SIZE) {
+                            full.put(block);
+                            block = free.take();
+                            block.length = 0;
+                        }
+                        int n = in.read(block.data, block.length, BLOCK_SIZE - block.length);
+                        if (n < 0) {
+                            break;
+                        }
+                        if (n > 0) {
+                            block.length += n;
+                            last = block.data[block.length - 1];
+                        }
+                    }
+                } catch (IOException e) {
+                    error = new IOException(file + ": " + e.getMessage(), e);
+                    break;
+                }
+                if (last != '\n') {
+                    if (block.length == BLOCK_SIZE) {
+                        full.put(block);
+                        block = free.take();
+                        block.length = 0;
+                    }
+                    block.data[block.length++] = '\n';
+                }
+            }
+            if (block.length > 0) {
+                full.put(block);
+            }
+            full.put(END);
+        } catch (InterruptedException e) {
+            //Closed by the consumer
+        }
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Puts slightly out-of-order lines back in time order before they reach the detector.
+ *
+ * Lines are held in a min-heap keyed by (timestamp, arrival order) until the watermark, the
+ * newest timestamp seen minus 'lagSeconds', passes them; at the end of the input the rest is
+ * drained in order. A line older than one already handed out cannot be placed any more: it is
+ * dropped and counted in LineCounts.late. Lines without a valid timestamp are passed straight
+ * through, to be counted as malformed.
+ *
+ * At most 'capacity' lines are held. When a burst fills the buffer, the oldest line is released
+ * early, so memory stays bounded and the effective lag shrinks instead. Each slot keeps its
+ * byte array between uses, so a steady stream allocates nothing.
+ */
+final class ReorderingLineSource implements LineSource {
+    private final LineSource in;
+    private final long lagSeconds;
+    private final LineCounts counts;
+    private final EventParser parser;
+
+    //Held lines, one per slot
+    private final byte[][] lines;
+    private final ByteBuffer[] views;
+    private final int[] lengths;
+    private final long[] times;
+    private final long[] arrivals; //tie-break, keeps input order for equal timestamps
+    private final int[] freeSlots;
+    private int freeCount;
+
+    //Min-heap of slots by (time, arrival)
+    private final int[] heap;
+    private int heapSize;
+
+    private long arrival;
+    private long newest = Long.MIN_VALUE; //highest timestamp read so far
+    private long released = Long.MIN_VALUE; //timestamp of the last line handed out
+    private boolean inputDone;
+
+    //The line handed out by the last next()
+    private int current = -1; //slot, or -1 for a line passed through from 'in'
+    private ByteBuffer buffer;
+    private int lineStart;
+    private int lineEnd;
+
+    ReorderingLineSource(LineSource in, LogFormat format, long lagSeconds, int capacity, LineCounts counts) {
+        this.in = in;
+        this.parser = format.newParser();
+        this.lagSeconds = lagSeconds;
+        this.counts = counts;
+        lines = new byte[capacity][];
+        views = new ByteBuffer[capacity];
+        lengths = new int[capacity];
+        times = new long[capacity];
+        arrivals = new long[capacity];
+        heap = new int[capacity];
+        freeSlots = new int[capacity];
+        for (int slot = 0; slot < capacity; slot++) {
+            lines[slot] = new byte[128];
+            views[slot] = ByteBuffer.wrap(lines[slot]);
+            freeSlots[freeCount++] = capacity - 1 - slot;
+        }
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (current >= 0) {
+            freeSlots[freeCount++] = current;
+            current = -1;
+        }
+        while (true) {
+            if (heapSize > 0 && (inputDone || freeCount == 0 || times[heap[0]] <= newest - lagSeconds)) {
+                return release();
+            }
+            if (inputDone) {
+                return false;
+            }
+            if (!in.next()) {
+                inputDone = true;
+                continue;
+            }
+            ByteBuffer buf = in.buffer();
+            int start = in.lineStart();
+            int end = in.lineEnd();
+            if (parser.parse(buf, start, end) != EventParser.OK) {
+                buffer = buf;
+                lineStart = start;
+                lineEnd = end;
+                return true;
+            }
+            long time = parser.epochSecond;
+            if (time < released) {
+                counts.late++;
+                continue;
+            }
+            hold(buf, start, end, time);
+            newest = Math.max(newest, time);
+        }
+    }
+
+    @Override
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    @Override
+    public int lineStart() {
+        return lineStart;
+    }
+
+    @Override
+    public int lineEnd() {
+        return lineEnd;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Copies buf[start, end) into a free slot and adds it to the heap.
+     */
+    private void hold(ByteBuffer buf, int start, int end, long time) {
+        int slot = freeSlots[--freeCount];
+        int length = end - start;
+        if (length > lines[slot].length) {
+            lines[slot] = Arrays.copyOf(lines[slot], Math.max(length, lines[slot].length * 2));
+            views[slot] = ByteBuffer.wrap(lines[slot]);
+        }
+        buf.get(start, lines[slot], 0, length);
+        lengths[slot] = length;
+        times[slot] = time;
+        arrivals[slot] = arrival++;
+
+        int index = heapSize++;
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!less(slot, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = slot;
+    }
+
+    /**
+     * Hands out the oldest held line. Its slot is freed on the next call.
+     */
+    private boolean release() {
+        int slot = heap[0];
+        int last = heap[--heapSize];
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], last)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        if (heapSize > 0) {
+            heap[index] = last;
+        }
+
+        current = slot;
+        released = times[slot];
+        buffer = views[slot];
+        lineStart = 0;
+        lineEnd = lengths[slot];
+        return true;
+    }
+
+    private boolean less(int a, int b) {
+        return times[a] < times[b] || (times[a] == times[b] && arrivals[a] < arrivals[b]);
+    }
+}
@@ -0,0 +1,135 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Parser for OpenSSH messages framed as RFC 5424 syslog, one message per line:
+ *
+ *   <38>1 2024-03-05T06:25:01.123Z host sshd 812 - - Failed password for root from 203.0.113.9 port 52114 ssh2
+ *
+ * The header is "<PRI>VERSION TIMESTAMP HOSTNAME APP-NAME PROCID MSGID STRUCTURED-DATA", the
+ * fields separated by single spaces and "-" standing for an empty one. Structured data elements
+ * are skipped, including quoted values with escaped '"' and ']'. Messages of APP-NAME sshd are
+ * read as in SshdParser, other applications are NOT_LOGIN. A nil timestamp is BAD_TIMESTAMP.
+ */
+final class Rfc5424Parser extends SshdParser {
+    //Optional UTF-8 byte order mark at the start of MSG
+    private static final byte BOM_0 = (byte) 0xEF;
+    private static final byte BOM_1 = (byte) 0xBB;
+    private static final byte BOM_2 = (byte) 0xBF;
+
+    /**
+     * Parses buf[start, end) as one RFC 5424 message.
+     * @return OK for an sshd login attempt, NOT_LOGIN for any other message, otherwise
+     *         SHORT_LINE (incomplete header), BAD_TIMESTAMP, MISSING_USER or MISSING_IP
+     */
+    @Override
+    int parse(ByteBuffer buf, int start, int end) {
+        while (start < end && (buf.get(start) & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (buf.get(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+
+        //PRI and VERSION: "<38>1 "
+        if (start == end || buf.get(start) != '<') {
+            return SHORT_LINE;
+        }
+        int pos = skipDigits(buf, start + 1, end);
+        if (pos == start + 1 || pos == end || buf.get(pos) != '>') {
+            return SHORT_LINE;
+        }
+        int versionStart = pos + 1;
+        pos = skipDigits(buf, versionStart, end);
+        if (pos == versionStart || pos == end || buf.get(pos) != ' ') {
+            return SHORT_LINE;
+        }
+
+        int timestampStart = pos + 1;
+        int timestampEnd = ByteScanner.BEST.indexOfSpace(buf, timestampStart, end);
+        epochSecond = rfc3339(buf, timestampStart, timestampEnd);
+        if (epochSecond == INVALID_TIME) {
+            return BAD_TIMESTAMP;
+        }
+
+        //HOSTNAME, APP-NAME, PROCID, MSGID
+        int hostEnd = nextField(buf, timestampEnd, end);
+        int appStart = hostEnd + 1;
+        int appEnd = nextField(buf, hostEnd, end);
+        int procIdEnd = nextField(buf, appEnd, end);
+        int msgIdEnd = nextField(buf, procIdEnd, end);
+        if (msgIdEnd == end) {
+            return SHORT_LINE;
+        }
+        if (!isSshd(buf, appStart, appEnd)) {
+            return NOT_LOGIN;
+        }
+
+        pos = structuredDataEnd(buf, msgIdEnd + 1, end);
+        if (pos < 0) {
+            return SHORT_LINE;
+        }
+        if (pos < end) {
+            pos++; //the space before MSG
+        }
+        if (end - pos >= 3 && buf.get(pos) == BOM_0 && buf.get(pos + 1) == BOM_1 && buf.get(pos + 2) == BOM_2) {
+            pos += 3;
+        }
+        return message(buf, pos, end);
+    }
+
+    /**
+     * @return the end of the header field after the separator at 'separator', or 'end' if the
+     *         line stops before it
+     */
+    private static int nextField(ByteBuffer buf, int separator, int end) {
+        if (separator >= end) {
+            return end;
+        }
+        return ByteScanner.BEST.indexOfSpace(buf, separator + 1, end);
+    }
+
+    /**
+     * Skips STRUCTURED-DATA at 'pos': "-" or one or more "[id name="value" ...]" elements.
+     * @return the offset just past it, or -1 if it is malformed or unterminated
+     */
+    private static int structuredDataEnd(ByteBuffer buf, int pos, int end) {
+        if (pos >= end) {
+            return -1;
+        }
+        if (buf.get(pos) == '-') {
+            return pos + 1;
+        }
+        if (buf.get(pos) != '[') {
+            return -1;
+        }
+        while (pos < end && buf.get(pos) == '[') {
+            pos++;
+            boolean quoted = false;
+            while (true) {
+                if (pos >= end) {
+                    return -1;
+                }
+                byte b = buf.get(pos++);
+                if (quoted) {
+                    if (b == '\\') {
+                        pos++; //escaped '"', '\' or ']'
+                    } else if (b == '"') {
+                        quoted = false;
+                    }
+                } else if (b == '"') {
+                    quoted = true;
+                } else if (b == ']') {
+                    break;
+                }
+            }
+        }
+        return pos;
+    }
+
+    private static int skipDigits(ByteBuffer buf, int pos, int end) {
+        while (pos < end && buf.get(pos) >= '0' && buf.get(pos) <= '9') {
+            pos++;
+        }
+        return pos;
+    }
+}
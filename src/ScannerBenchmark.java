@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the ByteScanner implementations on a real log: each one splits the whole file into
+ * lines and tokens the way the readers and the parser do, the results are checked against the
+ * scalar scanner, and the throughput of each is printed.
+ *
+ * A rough harness (warm-up rounds, then the best of the timed rounds), not a substitute for a
+ * JMH run, but enough to see whether a scanner pays off on a given CPU and data set.
+ */
+final class ScannerBenchmark {
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int TIMED_ROUNDS = 10;
+
+    private ScannerBenchmark() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * @return number of scanners whose results differ from the scalar scanner, or -1 if the
+     *         file cannot be read
+     */
+    static int run(String inputPath) {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(Paths.get(inputPath));
+        } catch (IOException e) {
+            System.out.println("Error reading input file: " + inputPath);
+            System.out.println(e.getMessage());
+            return -1;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data);
+
+        List<ByteScanner> scanners = new ArrayList<>();
+        scanners.add(ByteScanner.SCALAR);
+        scanners.add(ByteScanner.named("swar"));
+        ByteScanner vector = ByteScanner.named("vector");
+        if (!(vector instanceof SwarByteScanner)) {
+            scanners.add(vector);
+        } else {
+            System.out.println("Vector API not available (run with --add-modules jdk.incubator.vector)");
+        }
+
+        long expected = scan(ByteScanner.SCALAR, buf);
+        int mismatches = 0;
+        for (ByteScanner scanner : scanners) {
+            long result = 0;
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                result = scan(scanner, buf);
+            }
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < TIMED_ROUNDS; round++) {
+                long start = System.nanoTime();
+                result = scan(scanner, buf);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            if (result != expected) {
+                mismatches++;
+            }
+            double mbPerSecond = data.length / 1e6 / (best / 1e9);
+            System.out.printf("%-18s %8.1f MB/s%s%n", scanner, mbPerSecond, (result != expected) ? "  MISMATCH" : "");
+        }
+        return mismatches;
+    }
+
+    /**
+     * Splits 'buf' into lines and whitespace separated tokens.
+     * @return a checksum of every line and token end found
+     */
+    private static long scan(ByteScanner scanner, ByteBuffer buf) {
+        long checksum = 0;
+        int limit = buf.limit();
+        int pos = 0;
+        while (pos < limit) {
+            int lineEnd = scanner.indexOfLineEnd(buf, pos, limit);
+            int i = pos;
+            while (i < lineEnd) {
+                int tokenEnd = scanner.indexOfSpace(buf, i, lineEnd);
+                checksum = checksum * 31 + tokenEnd;
+                i = tokenEnd + 1;
+            }
+            checksum = checksum * 31 + lineEnd;
+            pos = lineEnd + 1;
+        }
+        return checksum;
+    }
+}
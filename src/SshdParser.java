@@ -0,0 +1,282 @@
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Parser for OpenSSH lines in a syslog file such as /var/log/auth.log or /var/log/secure:
+ *
+ *   Mar  5 06:25:01 host sshd[812]: Failed password for invalid user admin from 203.0.113.9 port 52114 ssh2
+ *   2024-03-05T06:25:01.123456+00:00 host sshd[812]: Accepted publickey for alice from 198.51.100.4 port 50022 ssh2: ...
+ *
+ * The header is a traditional "MMM dd HH:mm:ss" timestamp or an RFC 3339 one (rsyslog's high
+ * precision format, journalctl -o short-iso), then the host and the program tag. Lines of other
+ * programs (cron, sudo, PAM, ...) are NOT_LOGIN. Of the sshd messages, "Failed <method> for"
+ * is a FAILED event and "Accepted <method> for" a SUCCESS event; everything else (Invalid user,
+ * Connection closed, Disconnected, ...) is NOT_LOGIN, so each attempt is counted once. The
+ * "message repeated N times" summaries of rsyslog's duplicate suppression are not expanded.
+ *
+ * Traditional timestamps have no year and no offset. They are local time in ZONE, the
+ * syslog.zone system property (a zone ID such as Europe/Berlin or +01:00), by default the
+ * system's zone, and are converted to UTC like ISO ones; the hour repeated when clocks go back
+ * is taken as the earlier one. The current year in ZONE is assumed, or the year before when
+ * that would put the line more than a month in the future, so a log read in January still
+ * places its December lines in the past. Logs spanning more than a year need an ISO header.
+ */
+class SshdParser extends EventParser {
+    private static final byte[] MONTHS = ascii("JanFebMarAprMayJunJulAugSepOctNovDec");
+
+    private static final byte[] SSHD = ascii("sshd");
+    private static final byte[] SSHD_SESSION = ascii("sshd-session"); //OpenSSH 9.8 and later
+
+    private static final byte[] FAILED = ascii("Failed ");
+    private static final byte[] ACCEPTED = ascii("Accepted ");
+    private static final byte[] FOR = ascii("for ");
+    private static final byte[] INVALID_USER = ascii("invalid user ");
+    private static final byte[] FROM = ascii(" from ");
+
+    //How far in the future a yearless timestamp may be before it is taken as last year's
+    private static final long FUTURE_SLACK_SECONDS = 31 * 86400L;
+
+    //Zone of traditional timestamps, null if syslog.zone is not a valid zone ID
+    static final ZoneId ZONE = zone(System.getProperty("syslog.zone"));
+
+    //Marks a day whose UTC offset changes during it
+    private static final int OFFSET_VARIES = Integer.MIN_VALUE;
+
+    private final ZoneRules rules = ZONE.getRules();
+    private final long now = System.currentTimeMillis() / 1000;
+    private final long localNow = now + rules.getOffset(Instant.ofEpochSecond(now)).getTotalSeconds();
+    private final int currentYear = Instant.ofEpochSecond(now).atZone(ZONE).getYear();
+
+    //Month and day (month * 32 + day) of the last traditional timestamp, its local midnight as
+    //if it were UTC, and its UTC offset in seconds or OFFSET_VARIES
+    private int cachedMonthDay = -1;
+    private long cachedMidnight;
+    private int cachedOffset;
+
+    /**
+     * Parses buf[start, end) as one syslog line.
+     * @return OK for an sshd login attempt, NOT_LOGIN for any other well formed line, otherwise
+     *         BAD_TIMESTAMP, SHORT_LINE (no program tag), MISSING_USER or MISSING_IP
+     */
+    @Override
+    int parse(ByteBuffer buf, int start, int end) {
+        while (start < end && (buf.get(start) & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (buf.get(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return SHORT_LINE;
+        }
+
+        int pos;
+        byte first = buf.get(start);
+        if (first >= '0' && first <= '9') {
+            pos = ByteScanner.BEST.indexOfSpace(buf, start, end);
+            epochSecond = rfc3339(buf, start, pos);
+        } else {
+            pos = traditionalTimestamp(buf, start, end);
+        }
+        if (epochSecond == INVALID_TIME) {
+            return BAD_TIMESTAMP;
+        }
+
+        //Host, then the program tag: "sshd[812]:" or "sshd:"
+        int hostStart = skipSpaces(buf, pos, end);
+        int hostEnd = ByteScanner.BEST.indexOfSpace(buf, hostStart, end);
+        int tagStart = skipSpaces(buf, hostEnd, end);
+        if (tagStart == end) {
+            return SHORT_LINE;
+        }
+        int tagEnd = ByteScanner.BEST.indexOfSpace(buf, tagStart, end);
+        int nameEnd = tagStart;
+        while (nameEnd < tagEnd && buf.get(nameEnd) != '[' && buf.get(nameEnd) != ':') {
+            nameEnd++;
+        }
+        if (!isSshd(buf, tagStart, nameEnd)) {
+            return NOT_LOGIN;
+        }
+        return message(buf, skipSpaces(buf, tagEnd, end), end);
+    }
+
+    /**
+     * Reads an OpenSSH message in buf[pos, end) into the result fields.
+     * @return OK for "Failed ..." / "Accepted ... for USER from IP ...", MISSING_USER or
+     *         MISSING_IP if such a message lacks one, NOT_LOGIN for any other message
+     */
+    final int message(ByteBuffer buf, int pos, int end) {
+        byte eventType;
+        if (startsWith(buf, pos, end, FAILED)) {
+            eventType = TYPE_FAILED;
+            pos += FAILED.length;
+        } else if (startsWith(buf, pos, end, ACCEPTED)) {
+            eventType = TYPE_SUCCESS;
+            pos += ACCEPTED.length;
+        } else {
+            return NOT_LOGIN;
+        }
+
+        //Authentication method: password, publickey, keyboard-interactive/pam, none, ...
+        pos = skipSpaces(buf, ByteScanner.BEST.indexOfSpace(buf, pos, end), end);
+        if (!startsWith(buf, pos, end, FOR)) {
+            return NOT_LOGIN; //"Failed to ...", not an authentication attempt
+        }
+        pos += FOR.length;
+        if (startsWith(buf, pos, end, INVALID_USER)) {
+            pos += INVALID_USER.length;
+        }
+
+        //The user name is logged as the client sent it and may contain spaces, so the last
+        //" from " ends it
+        int from = lastIndexOf(buf, pos, end, FROM);
+        if (from < 0) {
+            return (pos == end) ? MISSING_USER : MISSING_IP;
+        }
+        if (from == pos) {
+            return MISSING_USER;
+        }
+        int ipFrom = from + FROM.length;
+        int ipTo = ByteScanner.BEST.indexOfSpace(buf, ipFrom, end);
+        if (ipFrom == ipTo) {
+            return MISSING_IP;
+        }
+
+        type = eventType;
+        userStart = pos;
+        userEnd = from;
+        ipStart = ipFrom;
+        ipEnd = ipTo;
+        return OK;
+    }
+
+    /**
+     * True if buf[start, end) is the name of the OpenSSH daemon.
+     */
+    static boolean isSshd(ByteBuffer buf, int start, int end) {
+        switch (end - start) {
+            case 4:
+                return startsWith(buf, start, end, SSHD);
+            case 12:
+                return startsWith(buf, start, end, SSHD_SESSION);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Decodes "MMM dd HH:mm:ss" (the day space padded or not) at 'start' into epochSecond,
+     * INVALID_TIME if it is not one.
+     * @return the offset just past the timestamp
+     */
+    private int traditionalTimestamp(ByteBuffer buf, int start, int end) {
+        epochSecond = INVALID_TIME;
+        if (end - start < 14 || buf.get(start + 3) != ' ') {
+            return start;
+        }
+        int month = month(buf, start);
+        int pos = start + 4;
+        if (buf.get(pos) == ' ') {
+            pos++;
+        }
+        int day = digits(buf, pos, 1);
+        pos++;
+        if (buf.get(pos) != ' ') {
+            int units = digits(buf, pos, 1);
+            day = (day < 0 || units < 0) ? -1 : day * 10 + units;
+            pos++;
+        }
+        if (month == 0 || day < 1 || day > 31 || pos + 9 > end || buf.get(pos) != ' '
+                || buf.get(pos + 3) != ':' || buf.get(pos + 6) != ':') {
+            return start;
+        }
+        int hour = digits(buf, pos + 1, 2);
+        int minute = digits(buf, pos + 4, 2);
+        int second = digits(buf, pos + 7, 2);
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return start;
+        }
+        long midnight = midnight(month, day);
+        if (midnight != INVALID_TIME) {
+            long local = midnight + hour * 3600 + minute * 60 + second;
+            int offset = (cachedOffset != OFFSET_VARIES) ? cachedOffset
+                    : rules.getOffset(LocalDateTime.ofEpochSecond(local, 0, ZoneOffset.UTC)).getTotalSeconds();
+            epochSecond = local - offset;
+        }
+        return pos + 9;
+    }
+
+    /**
+     * @return 1 - 12 for the month abbreviation at 'pos', 0 if there is none
+     */
+    private static int month(ByteBuffer buf, int pos) {
+        byte b0 = buf.get(pos);
+        byte b1 = buf.get(pos + 1);
+        byte b2 = buf.get(pos + 2);
+        for (int m = 0; m < 12; m++) {
+            if (MONTHS[m * 3] == b0 && MONTHS[m * 3 + 1] == b1 && MONTHS[m * 3 + 2] == b2) {
+                return m + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Local midnight on month/day of the inferred year, counted in seconds like UTC, or
+     * INVALID_TIME if that day does not exist in it. Also sets cachedOffset to the day's UTC
+     * offset. Cached, as consecutive lines almost always share the day.
+     */
+    private long midnight(int month, int day) {
+        int monthDay = month * 32 + day;
+        if (monthDay == cachedMonthDay) {
+            return cachedMidnight;
+        }
+        int year = currentYear;
+        if (epochDay(year, month, Math.min(day, lengthOfMonth(year, month))) * 86400L > localNow + FUTURE_SLACK_SECONDS) {
+            year--;
+        }
+        long midnight = (day <= lengthOfMonth(year, month)) ? epochDay(year, month, day) * 86400L : INVALID_TIME;
+        if (midnight != INVALID_TIME) {
+            int offset = rules.getOffset(LocalDateTime.ofEpochSecond(midnight, 0, ZoneOffset.UTC)).getTotalSeconds();
+            ZoneOffsetTransition next = rules.nextTransition(Instant.ofEpochSecond(midnight - offset));
+            boolean varies = next != null && next.toEpochSecond() <= midnight - offset + 86400;
+            cachedOffset = varies ? OFFSET_VARIES : offset;
+        }
+        cachedMonthDay = monthDay;
+        cachedMidnight = midnight;
+        return midnight;
+    }
+
+    /**
+     * @return the zone named 'id', the system's zone if 'id' is null, or null if 'id' is not a
+     *         zone ID
+     */
+    static ZoneId zone(String id) {
+        if (id == null) {
+            return ZoneId.systemDefault();
+        }
+        try {
+            return ZoneId.of(id);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the offset of the last occurrence of 'word' in buf[from, end), or -1
+     */
+    private static int lastIndexOf(ByteBuffer buf, int from, int end, byte[] word) {
+        for (int i = end - word.length; i >= from; i--) {
+            if (buf.get(i) == word[0] && startsWith(buf, i, end, word)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,67 @@
+import java.nio.ByteBuffer;
+
+/**
+ * ByteScanner that tests 8 bytes at a time as one long (SIMD within a register).
+ *
+ * A word is read big-endian, so the first byte in memory is the most significant one and the
+ * first match is at numberOfLeadingZeros / 8. The per-byte tests below never carry from one
+ * byte into the next, so every flagged byte is a real match, not just the first one.
+ */
+final class SwarByteScanner implements ByteScanner {
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+    private static final long HIGH = 0x8080808080808080L;
+
+    private static final long LF = '\n' * ONES;
+    private static final long CR = '\r' * ONES;
+    private static final long SPACE = ' ' * ONES;
+    private static final long BELOW_TAB = (0x80 - '\t') * ONES; //high bit set once a byte >= '\t'
+    private static final long ABOVE_CR = (0x80 - '\r' - 1) * ONES; //high bit set once a byte > '\r'
+
+    @Override
+    public int indexOfLineEnd(ByteBuffer buf, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = buf.getLong(i);
+            long matches = zeroBytes(word ^ LF) | zeroBytes(word ^ CR);
+            if (matches != 0) {
+                return i + (Long.numberOfLeadingZeros(matches) >>> 3);
+            }
+        }
+        return SCALAR.indexOfLineEnd(buf, i, to);
+    }
+
+    @Override
+    public int indexOfSpace(ByteBuffer buf, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = buf.getLong(i);
+            long matches = zeroBytes(word ^ SPACE) | controlSpaces(word);
+            if (matches != 0) {
+                return i + (Long.numberOfLeadingZeros(matches) >>> 3);
+            }
+        }
+        return SCALAR.indexOfSpace(buf, i, to);
+    }
+
+    @Override
+    public String toString() {
+        return "swar";
+    }
+
+    /**
+     * @return the high bit set in each byte of 'x' that is zero
+     */
+    private static long zeroBytes(long x) {
+        long y = (x & LOW7) + LOW7; //high bit set if the low 7 bits are not all zero
+        return ~(y | x | LOW7);
+    }
+
+    /**
+     * @return the high bit set in each byte of 'x' in '\t' .. '\r'
+     */
+    private static long controlSpaces(long x) {
+        long low = x & LOW7;
+        return (low + BELOW_TAB) & ~(low + ABOVE_CR) & ~x & HIGH;
+    }
+}
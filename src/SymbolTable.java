@@ -0,0 +1,363 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Interns byte strings (user names, IPs) into dense int ids 0, 1, 2, ...
+ *
+ * Lookups hash and compare the raw bytes in place, so a name that has been seen before costs
+ * no allocation. Each distinct name is stored once in a byte arena; detector state is then kept
+ * in slots indexed by id. Open addressing with linear probing, kept at most half full.
+ *
+ * Names come from the log, so an attacker picks them: sshd logs whatever follows "invalid user".
+ * The index hash is therefore seeded with SEED, random per process. Names crafted to share a
+ * fixed hash, such as those built from "Aa" and "BB" blocks under String.hashCode, spread like any
+ * others instead of piling up in one probe run.
+ *
+ * The hash index, the per-id columns and the arena are all off the Java heap (OffHeapSlots and
+ * direct arena pages), so millions of names add no heap objects.
+ *
+ * Each name also keeps a 64-bit fingerprint, computed once when it is added, for callers that
+ * need a hash of the name that is the same in every table and every run (distinct counts, which
+ * are saved in checkpoints); the 32-bit index hash differs between runs.
+ *
+ * A removed name's id goes on a free list and is handed to the next new name. Its bytes stay in
+ * the arena until the dead bytes outweigh the live ones; the live names are then copied to new
+ * pages, which keeps the arena within twice the live size at O(1) amortized cost per name.
+ */
+final class SymbolTable {
+    //Random per process, for hashes of names an attacker may have crafted to collide
+    static final long SEED = new SecureRandom().nextLong();
+
+    //Per id: hash, length, arena position ((page << 32) | offset in page) and fingerprint. A free
+    //id has length FREE and the next free id (or -1) as its position.
+    private static final int HASH = 0;
+    private static final int LENGTH = 4;
+    private static final int POSITION = 8;
+    private static final int FINGERPRINT = 16;
+    private static final int FREE = -1;
+
+    //Names are packed into pages of this size; a longer name gets a page of its own
+    private static final int ARENA_PAGE_SIZE = 1 << 16;
+
+    private OffHeapSlots index = newIndex(64); //id + 1, 0 = empty
+    private int indexCapacity = 64;
+    private final OffHeapSlots entries = new OffHeapSlots(24);
+    private ByteBuffer[] arena = new ByteBuffer[4];
+    private int arenaPages;
+    private int arenaFill; //bytes used in the last page
+    private long liveBytes; //arena bytes of names still in the table
+    private long deadBytes; //arena bytes of removed names
+    private int size;
+    private int freeIds = -1; //first free id, -1 = none
+
+    /**
+     * @return the id of buf[start, end), adding it if it is new
+     */
+    int intern(ByteBuffer buf, int start, int end) {
+        int hash = hash(buf, start, end);
+        int slot = probe(buf, start, end, hash);
+        int entry = index.getInt(slot, 0);
+        if (entry != 0) {
+            return entry - 1;
+        }
+
+        int id = add(buf, start, end, hash);
+        index.putInt(slot, 0, id + 1);
+        if (size * 2 > indexCapacity) {
+            rehash(indexCapacity * 2);
+        }
+        return id;
+    }
+
+    /**
+     * @return the id of buf[start, end), or -1 if it is not in the table
+     */
+    int find(ByteBuffer buf, int start, int end) {
+        return index.getInt(probe(buf, start, end, hash(buf, start, end)), 0) - 1;
+    }
+
+    /**
+     * @return the id of the same name in this table, adding it if it is new
+     */
+    int intern(SymbolTable other, int otherId) {
+        long position = other.entries.getLong(otherId, POSITION);
+        int offset = (int) position;
+        return intern(other.arena[(int) (position >>> 32)], offset, offset + other.entries.getInt(otherId, LENGTH));
+    }
+
+    /**
+     * Decodes the name of 'id'. Allocates; meant for reporting.
+     */
+    String name(int id) {
+        return new String(bytes(id), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the fingerprint of the name of 'id', equal to fingerprint() of its bytes
+     */
+    long fingerprint(int id) {
+        return entries.getLong(id, FINGERPRINT);
+    }
+
+    /**
+     * Number of ids handed out; ids are 0 .. size() - 1, some of them free after remove().
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes the name of 'id'; the id is reused for a later new name.
+     */
+    void remove(int id) {
+        int mask = indexCapacity - 1;
+        int slot = entries.getInt(id, HASH) & mask;
+        while (index.getInt(slot, 0) != id + 1) {
+            slot = (slot + 1) & mask;
+        }
+        //Backward shift: pull later entries of the probe run into the hole so lookups need no tombstones
+        int hole = slot;
+        for (int next = (hole + 1) & mask; index.getInt(next, 0) != 0; next = (next + 1) & mask) {
+            int entry = index.getInt(next, 0);
+            int home = entries.getInt(entry - 1, HASH) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                index.putInt(hole, 0, entry);
+                hole = next;
+            }
+        }
+        index.putInt(hole, 0, 0);
+
+        int length = entries.getInt(id, LENGTH);
+        liveBytes -= length;
+        deadBytes += length;
+        free(id);
+        if (deadBytes > ARENA_PAGE_SIZE && deadBytes > liveBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * @return the direct memory held by the index, columns and arena, in bytes
+     */
+    long bytes() {
+        long bytes = index.bytes() + entries.bytes();
+        for (int page = 0; page < arenaPages; page++) {
+            bytes += arena[page].capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes every name in id order, for a checkpoint.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int id = 0; id < size; id++) {
+            if (entries.getInt(id, LENGTH) == FREE) {
+                out.writeInt(FREE);
+                continue;
+            }
+            byte[] name = bytes(id);
+            out.writeInt(name.length);
+            out.write(name);
+        }
+    }
+
+    /**
+     * Reads names written by writeTo into this (empty) table; they get the same ids, and free
+     * ids stay free.
+     */
+    void readFrom(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        byte[] name = new byte[64];
+        for (int i = 0; i < count; i++) {
+            int length = in.readInt();
+            if (length == FREE) {
+                //Held by a placeholder until every name has its id
+                entries.ensure(size);
+                entries.putInt(size++, LENGTH, FREE);
+                continue;
+            }
+            if (length > name.length) {
+                name = new byte[Math.max(length, name.length * 2)];
+            }
+            in.readFully(name, 0, length);
+            intern(ByteBuffer.wrap(name), 0, length);
+        }
+        for (int id = size - 1; id >= 0; id--) {
+            if (entries.getInt(id, LENGTH) == FREE) {
+                free(id);
+            }
+        }
+    }
+
+    private byte[] bytes(int id) {
+        long position = entries.getLong(id, POSITION);
+        byte[] name = new byte[entries.getInt(id, LENGTH)];
+        arena[(int) (position >>> 32)].get((int) position, name);
+        return name;
+    }
+
+    private int add(ByteBuffer buf, int start, int end, int hash) {
+        int id;
+        if (freeIds >= 0) {
+            id = freeIds;
+            freeIds = (int) entries.getLong(id, POSITION);
+        } else {
+            id = size++;
+            entries.ensure(id);
+        }
+        entries.putInt(id, HASH, hash);
+        entries.putInt(id, LENGTH, end - start);
+        entries.putLong(id, POSITION, store(buf, start, end - start));
+        entries.putLong(id, FINGERPRINT, fingerprint(buf, start, end));
+        liveBytes += end - start;
+        return id;
+    }
+
+    /**
+     * Appends 'length' bytes at buf[start] to the arena.
+     * @return their position
+     */
+    private long store(ByteBuffer buf, int start, int length) {
+        if (arenaPages == 0 || arenaFill + length > arena[arenaPages - 1].capacity()) {
+            if (arenaPages == arena.length) {
+                arena = Arrays.copyOf(arena, arenaPages * 2);
+            }
+            arena[arenaPages++] = ByteBuffer.allocateDirect(Math.max(ARENA_PAGE_SIZE, length));
+            arenaFill = 0;
+        }
+        arena[arenaPages - 1].put(arenaFill, buf, start, length);
+        long position = ((long) (arenaPages - 1) << 32) | arenaFill;
+        arenaFill += length;
+        return position;
+    }
+
+    private void free(int id) {
+        entries.putInt(id, LENGTH, FREE);
+        entries.putLong(id, POSITION, freeIds);
+        freeIds = id;
+    }
+
+    /**
+     * Copies the live names to new arena pages and drops the old ones.
+     */
+    private void compact() {
+        ByteBuffer[] old = arena;
+        arena = new ByteBuffer[4];
+        arenaPages = 0;
+        arenaFill = 0;
+        for (int id = 0; id < size; id++) {
+            int length = entries.getInt(id, LENGTH);
+            if (length != FREE) {
+                long position = entries.getLong(id, POSITION);
+                entries.putLong(id, POSITION, store(old[(int) (position >>> 32)], (int) position, length));
+            }
+        }
+        deadBytes = 0;
+    }
+
+    /**
+     * @return the index slot holding buf[start, end), or the empty slot where it would go
+     */
+    private int probe(ByteBuffer buf, int start, int end, int hash) {
+        int mask = indexCapacity - 1;
+        int slot = hash & mask;
+        while (true) {
+            int entry = index.getInt(slot, 0);
+            if (entry == 0) {
+                return slot;
+            }
+            int id = entry - 1;
+            if (entries.getInt(id, HASH) == hash && matches(id, buf, start, end)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean matches(int id, ByteBuffer buf, int start, int end) {
+        int length = entries.getInt(id, LENGTH);
+        if (length != end - start) {
+            return false;
+        }
+        long position = entries.getLong(id, POSITION);
+        ByteBuffer page = arena[(int) (position >>> 32)];
+        int offset = (int) position;
+        int i = 0;
+        if (buf.order() == page.order()) {
+            //8 bytes per step; both buffers read them in the same byte order
+            for (; i + Long.BYTES <= length; i += Long.BYTES) {
+                if (page.getLong(offset + i) != buf.getLong(start + i)) {
+                    return false;
+                }
+            }
+        }
+        for (; i < length; i++) {
+            if (page.get(offset + i) != buf.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        OffHeapSlots newIndex = newIndex(capacity);
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            if (entries.getInt(id, LENGTH) == FREE) {
+                continue;
+            }
+            int slot = entries.getInt(id, HASH) & mask;
+            while (newIndex.getInt(slot, 0) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newIndex.putInt(slot, 0, id + 1);
+        }
+        index = newIndex;
+        indexCapacity = capacity;
+    }
+
+    private static OffHeapSlots newIndex(int capacity) {
+        OffHeapSlots index = new OffHeapSlots(Integer.BYTES);
+        index.ensure(capacity - 1);
+        return index;
+    }
+
+    /**
+     * @return the index hash of buf[start, end): FNV-1a from a basis depending on SEED, then
+     *         mixed with SEED, so which names collide cannot be known without it
+     */
+    private static int hash(ByteBuffer buf, int start, int end) {
+        return (int) mix(fnv(0xCBF29CE484222325L ^ SEED, buf, start, end) ^ SEED);
+    }
+
+    /**
+     * @return a 64-bit hash of buf[start, end): FNV-1a, then mixed so every output bit depends on
+     *         every byte
+     */
+    static long fingerprint(ByteBuffer buf, int start, int end) {
+        return mix(fnv(0xCBF29CE484222325L, buf, start, end));
+    }
+
+    private static long fnv(long h, ByteBuffer buf, int start, int end) {
+        for (int i = start; i < end; i++) {
+            h = (h ^ (buf.get(i) & 0xFF)) * 0x100000001B3L;
+        }
+        return h;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,187 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/**
+ * Reads complete lines from a file that is still being written, like tail -F.
+ *
+ * next() returns false when no complete line is available yet instead of meaning end of input;
+ * an unterminated last line is held back until its terminator arrives. Line terminators match
+ * ByteLineReader: \n, \r or \r\n. A line ending in \r at the end of what has been written is
+ * also held back until the next byte shows whether a \n follows, so offset() is always past a
+ * whole terminator. poll() notices the two ways a log gets rotated:
+ * - truncation in place (size drops below what was read): start again from offset 0
+ * - the path now names a different file (file key / inode changed): finish the old file,
+ *   including an unterminated last line, then switch to the new one from offset 0
+ */
+final class TailLineReader implements LineSource {
+    private static final int INITIAL_SIZE = 1 << 16;
+
+    private final Path path;
+    private FileChannel channel;
+    private Object fileKey;
+    private long readOffset; //file offset of the next byte to read from the channel
+
+    private ByteBuffer buf = ByteBuffer.allocate(INITIAL_SIZE);
+    private int pos; //first buffered byte not yet returned
+    private int limit; //end of the buffered bytes
+    private boolean switchPending; //path names a new file; finish the old one first
+
+    private int lineStart;
+    private int lineEnd;
+
+    private int rotations;
+    private int truncations;
+
+    TailLineReader(Path path) throws IOException {
+        this(path, 0);
+    }
+
+    /**
+     * Opens 'path' and starts reading at byte 'offset'.
+     */
+    TailLineReader(Path path, long offset) throws IOException {
+        this.path = path;
+        open(offset);
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        while (true) {
+            int i = ByteScanner.BEST.indexOfLineEnd(buf, pos, limit);
+            if (i < limit - 1 || (i == limit - 1 && buf.get(i) == '\n')) {
+                lineStart = pos;
+                lineEnd = i;
+                pos = (buf.get(i) == '\r' && i + 1 < limit && buf.get(i + 1) == '\n') ? i + 2 : i + 1;
+                return true;
+            }
+            if (switchPending) {
+                if (fill()) {
+                    continue;
+                }
+                //The old file is finished, so a last line ending in \r or unterminated is complete
+                if (pos < limit) {
+                    lineStart = pos;
+                    lineEnd = (buf.get(limit - 1) == '\r') ? limit - 1 : limit;
+                    pos = limit;
+                    return true;
+                }
+                switchPending = false;
+                channel.close();
+                open(0);
+                rotations++;
+                continue;
+            }
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Checks for rotation or truncation once next() has returned false.
+     * @return true if the reader moved to a new file or back to offset 0, so next() may
+     *         have more lines
+     */
+    boolean poll() throws IOException {
+        Object currentKey;
+        try {
+            currentKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            //Between the rename and the new file being created; keep the old one for now
+            return false;
+        }
+        if (fileKey != null && currentKey != null && !fileKey.equals(currentKey)) {
+            switchPending = true;
+            return true;
+        }
+        if (channel.size() < readOffset) {
+            //Truncated in place: whatever is buffered belongs to the old content
+            channel.close();
+            open(0);
+            truncations++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * File offset just past the last line returned by next().
+     */
+    long offset() {
+        return readOffset - (limit - pos);
+    }
+
+    /**
+     * Identity (device and inode where available) of the file being read, as text.
+     */
+    String fileKey() {
+        return String.valueOf(fileKey);
+    }
+
+    int rotations() {
+        return rotations;
+    }
+
+    int truncations() {
+        return truncations;
+    }
+
+    @Override
+    public ByteBuffer buffer() {
+        return buf;
+    }
+
+    @Override
+    public int lineStart() {
+        return lineStart;
+    }
+
+    @Override
+    public int lineEnd() {
+        return lineEnd;
+    }
+
+    private void open(long offset) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        readOffset = offset;
+        pos = 0;
+        limit = 0;
+    }
+
+    /**
+     * Reads whatever has been appended since the last read.
+     * @return false if nothing new was available
+     */
+    private boolean fill() throws IOException {
+        if (pos > 0) {
+            //Move the unfinished line to the front
+            System.arraycopy(buf.array(), pos, buf.array(), 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buf.capacity()) {
+            buf = ByteBuffer.wrap(Arrays.copyOf(buf.array(), buf.capacity() * 2));
+        }
+        buf.limit(buf.capacity()).position(limit);
+        int n = channel.read(buf, readOffset);
+        if (n <= 0) {
+            return false;
+        }
+        readOffset += n;
+        limit += n;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
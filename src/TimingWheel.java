@@ -0,0 +1,183 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.function.IntConsumer;
+
+/**
+ * Finds keys that have been idle for 'ttl' seconds of event time, with a hierarchical timing
+ * wheel over dense key ids.
+ *
+ * LEVELS wheels of SLOTS buckets each; a bucket of level L spans 64^L seconds, so deadlines up to
+ * 64^4 s (194 days) ahead are placed directly and later ones wait in the last reachable bucket.
+ * When the clock crosses a bucket boundary of level L, that bucket's keys are placed again one
+ * level down, and level 0 buckets are expired second by second. Runs of empty levels are
+ * skipped, so a gap in the log does not cost a step per second.
+ *
+ * A key is in at most one bucket. Touching a scheduled key only records its newer time; when
+ * its bucket comes due it is expired if it is still idle, otherwise placed again by its current
+ * deadline. A key thus costs O(1) per touch and per ttl of activity, and no pass ever scans all
+ * keys. Bucket links are kept per id in OffHeapSlots, next to the rest of the per-key state.
+ */
+final class TimingWheel {
+    private static final int SHIFT = 6;
+    private static final int SLOTS = 1 << SHIFT;
+    private static final int LEVELS = 4;
+    private static final long SPAN = 1L << (SHIFT * LEVELS);
+
+    //Per id: newest event time, next id + 1 in the same bucket (0 = last), 1 if in a bucket
+    private static final int LAST_SEEN = 0;
+    private static final int NEXT = 8;
+    private static final int SCHEDULED = 12;
+    private final OffHeapSlots keys = new OffHeapSlots(16);
+
+    private final long ttl;
+    private final int[] heads = new int[LEVELS * SLOTS]; //first id + 1 per bucket, 0 = empty
+    private final int[] counts = new int[LEVELS]; //keys per level
+    private long now = Long.MIN_VALUE; //clock, in epoch seconds
+
+    TimingWheel(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Records an event of 'id' at 'time', scheduling the key if it is not yet in the wheel.
+     */
+    void touch(int id, long time) {
+        keys.ensure(id);
+        if (keys.getInt(id, SCHEDULED) == 0) {
+            if (scheduled() == 0 && time > now) {
+                now = time;
+            }
+            keys.putLong(id, LAST_SEEN, time);
+            schedule(id, Math.max(time + ttl, now + 1));
+        } else if (time > keys.getLong(id, LAST_SEEN)) {
+            keys.putLong(id, LAST_SEEN, time);
+        }
+    }
+
+    /**
+     * Moves the clock to 'time' (it never goes back) and passes every key that has had no event
+     * for ttl seconds to 'expire'. An expired key leaves the wheel until it is touched again.
+     */
+    void advance(long time, IntConsumer expire) {
+        while (now < time) {
+            if (scheduled() == 0) {
+                now = time;
+                break;
+            }
+            //Jump over ticks of empty levels, up to the next boundary that has something to cascade
+            long next = now + 1;
+            for (int level = 0; level < LEVELS - 1 && counts[level] == 0; level++) {
+                int shift = SHIFT * (level + 1);
+                next = ((now >> shift) + 1) << shift;
+            }
+            now = Math.min(next, time);
+            tick(expire);
+        }
+    }
+
+    /**
+     * @return the direct memory held, in bytes
+     */
+    long bytes() {
+        return keys.bytes();
+    }
+
+    /**
+     * Writes the clock and the last-seen time of every scheduled id below 'limit', for a checkpoint.
+     */
+    void writeTo(DataOutputStream out, int limit) throws IOException {
+        out.writeLong(now);
+        for (int id = 0; id < limit; id++) {
+            boolean scheduled = id < keys.capacity() && keys.getInt(id, SCHEDULED) != 0;
+            out.writeLong(scheduled ? keys.getLong(id, LAST_SEEN) : Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Restores what writeTo wrote into this (empty) wheel.
+     */
+    void readFrom(DataInputStream in, int limit) throws IOException {
+        now = in.readLong();
+        for (int id = 0; id < limit; id++) {
+            long lastSeen = in.readLong();
+            if (lastSeen != Long.MIN_VALUE) {
+                keys.ensure(id);
+                keys.putLong(id, LAST_SEEN, lastSeen);
+                schedule(id, Math.max(lastSeen + ttl, now + 1));
+            }
+        }
+    }
+
+    private int scheduled() {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Handles the second 'now': cascades the buckets whose boundary it is, highest level first,
+     * then expires or reschedules the keys of its level 0 bucket.
+     */
+    private void tick(IntConsumer expire) {
+        for (int level = LEVELS - 1; level >= 1; level--) {
+            int shift = SHIFT * level;
+            if ((now & ((1L << shift) - 1)) == 0) {
+                int id = detach(level, (int) ((now >> shift) & (SLOTS - 1)));
+                while (id >= 0) {
+                    int next = keys.getInt(id, NEXT) - 1;
+                    counts[level]--;
+                    schedule(id, keys.getLong(id, LAST_SEEN) + ttl);
+                    id = next;
+                }
+            }
+        }
+        int id = detach(0, (int) (now & (SLOTS - 1)));
+        while (id >= 0) {
+            int next = keys.getInt(id, NEXT) - 1;
+            counts[0]--;
+            long deadline = keys.getLong(id, LAST_SEEN) + ttl;
+            if (deadline <= now) {
+                keys.putInt(id, SCHEDULED, 0);
+                expire.accept(id);
+            } else {
+                schedule(id, deadline);
+            }
+            id = next;
+        }
+    }
+
+    /**
+     * Empties a bucket.
+     * @return the first id of its former chain, or -1
+     */
+    private int detach(int level, int slot) {
+        int bucket = level * SLOTS + slot;
+        int first = heads[bucket] - 1;
+        heads[bucket] = 0;
+        return first;
+    }
+
+    private void schedule(int id, long deadline) {
+        long delta = deadline - now;
+        int level = 0;
+        if (delta < 0) {
+            deadline = now + 1; //overdue: the next tick
+        } else {
+            if (delta >= SPAN) {
+                deadline = now + SPAN - 1; //rescheduled when this bucket comes due
+                delta = SPAN - 1;
+            }
+            while (delta >= 1L << (SHIFT * (level + 1))) {
+                level++;
+            }
+        }
+        int bucket = level * SLOTS + (int) ((deadline >> (SHIFT * level)) & (SLOTS - 1));
+        keys.putInt(id, NEXT, heads[bucket]);
+        keys.putInt(id, SCHEDULED, 1);
+        heads[bucket] = id + 1;
+        counts[level]++;
+    }
+}
@@ -0,0 +1,153 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Approximate failure counts per user name in fixed memory: a Count-Min sketch with
+ * conservative update, for --user-sketch.
+ *
+ * DEPTH rows of 'width' int counters; a name maps to one counter per row through h1 + row * h2,
+ * two hashes of the SymbolTable.fingerprint of its bytes mixed with a seed. Adding a failure
+ * raises only the row counters that are below the new estimate (min over the rows, plus one); the
+ * estimate is that minimum.
+ * With N failures added, an estimate is never below the true count and exceeds it by more than
+ * (e / width) * N with probability at most e^-DEPTH. Conservative update keeps the error well
+ * under that bound in practice, as counters shared with other names only rise when needed.
+ *
+ * Estimates only err upwards, so if the columns were known, an attacker could fail logins with
+ * names sharing a victim's counters and get the victim flagged. The seed is SymbolTable.SEED,
+ * random per process, or the one saved in the checkpoint the sketch was restored from.
+ *
+ * Names are hashed in place by the caller, so a failure costs no allocation and no dictionary
+ * entry. Each row is one direct buffer of exactly 'width' counters, so the sketch holds what the
+ * budget allows and no more (OffHeapSlots would round a small sketch up to whole pages).
+ */
+final class UserSketch {
+    static final int DEPTH = 4;
+
+    //Smallest width, so that a tiny budget still gives a usable sketch
+    private static final int MIN_WIDTH = 1 << 10;
+    static final int MIN_KB = MIN_WIDTH * DEPTH * Integer.BYTES >> 10;
+
+    private final int width; //power of two
+    private final ByteBuffer[] rows = new ByteBuffer[DEPTH];
+    private long seed = SymbolTable.SEED;
+    private long total; //failures added (N)
+
+    /**
+     * @param budgetBytes memory for the counters, at least MIN_KB; the width is the largest power
+     *        of two that fits
+     */
+    UserSketch(long budgetBytes) {
+        long perRow = Math.max(MIN_WIDTH, budgetBytes / (DEPTH * Integer.BYTES));
+        int w = MIN_WIDTH;
+        while (w <= perRow / 2 && w < (1 << 28)) {
+            w <<= 1;
+        }
+        width = w;
+        for (int row = 0; row < DEPTH; row++) {
+            rows[row] = ByteBuffer.allocateDirect(width * Integer.BYTES).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * Adds one failure of the name with the given SymbolTable.fingerprint.
+     * @return the name's estimated failure count, including this one
+     */
+    int add(long fingerprint) {
+        long h1 = mix(fingerprint ^ seed);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        int mask = width - 1;
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, rows[row].getInt(column(h1, h2, row, mask)));
+        }
+        //Conservative update: raise only the counters below the new estimate
+        estimate++;
+        for (int row = 0; row < DEPTH; row++) {
+            int offset = column(h1, h2, row, mask);
+            if (rows[row].getInt(offset) < estimate) {
+                rows[row].putInt(offset, estimate);
+            }
+        }
+        total++;
+        return estimate;
+    }
+
+    int width() {
+        return width;
+    }
+
+    /**
+     * The dimensions and error bound, for the report header.
+     */
+    String accuracy() {
+        return "Count-Min sketch, " + DEPTH + " x " + width + " (" + (bytes() >> 10) + " KB) until flagged; estimates at most "
+                + errorBound() + " over with " + Math.round(confidence() * 1000) / 10.0 + "% confidence";
+    }
+
+    /**
+     * @return the overestimate bound (e / width) * N for the failures added so far
+     */
+    long errorBound() {
+        return (long) Math.ceil(Math.E / width * total);
+    }
+
+    /**
+     * @return the probability that an estimate is within errorBound(), 1 - e^-DEPTH
+     */
+    static double confidence() {
+        return 1 - Math.exp(-DEPTH);
+    }
+
+    /**
+     * @return the direct memory held, in bytes
+     */
+    long bytes() {
+        return (long) DEPTH * width * Integer.BYTES;
+    }
+
+    /**
+     * Writes the seed, the failure total and every counter, for a checkpoint.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(seed);
+        out.writeLong(total);
+        for (ByteBuffer row : rows) {
+            for (int i = 0; i < width; i++) {
+                out.writeInt(row.getInt(i * Integer.BYTES));
+            }
+        }
+    }
+
+    /**
+     * Restores what writeTo wrote into this (empty) sketch of the same width.
+     */
+    void readFrom(DataInputStream in) throws IOException {
+        seed = in.readLong();
+        total = in.readLong();
+        for (ByteBuffer row : rows) {
+            for (int i = 0; i < width; i++) {
+                row.putInt(i * Integer.BYTES, in.readInt());
+            }
+        }
+    }
+
+    /**
+     * @return the byte offset of the name's counter in 'row'
+     */
+    private static int column(long h1, long h2, int row, int mask) {
+        return (int) ((h1 + row * h2) & mask) * Integer.BYTES;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
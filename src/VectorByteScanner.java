@@ -0,0 +1,64 @@
+import java.nio.ByteBuffer;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * ByteScanner that compares a whole SIMD register of bytes per step (16 to 64 depending on the
+ * CPU) with the incubating Vector API. Only heap buffers are read as vectors; direct and
+ * mapped buffers, and the tail shorter than a vector, go through SWAR.
+ *
+ * Needs --add-modules jdk.incubator.vector both to compile and to run; ByteScanner loads it by
+ * name so the rest of the detector works without it.
+ */
+final class VectorByteScanner implements ByteScanner {
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    private final ByteScanner tail = new SwarByteScanner();
+
+    @Override
+    public int indexOfLineEnd(ByteBuffer buf, int from, int to) {
+        if (!buf.hasArray()) {
+            return tail.indexOfLineEnd(buf, from, to);
+        }
+        byte[] array = buf.array();
+        int offset = buf.arrayOffset();
+        int step = SPECIES.length();
+        int i = from;
+        for (; i + step <= to; i += step) {
+            ByteVector v = ByteVector.fromArray(SPECIES, array, offset + i);
+            VectorMask<Byte> matches = v.eq((byte) '\n').or(v.eq((byte) '\r'));
+            if (matches.anyTrue()) {
+                return i + matches.firstTrue();
+            }
+        }
+        return tail.indexOfLineEnd(buf, i, to);
+    }
+
+    @Override
+    public int indexOfSpace(ByteBuffer buf, int from, int to) {
+        if (!buf.hasArray()) {
+            return tail.indexOfSpace(buf, from, to);
+        }
+        byte[] array = buf.array();
+        int offset = buf.arrayOffset();
+        int step = SPECIES.length();
+        int i = from;
+        for (; i + step <= to; i += step) {
+            ByteVector v = ByteVector.fromArray(SPECIES, array, offset + i);
+            VectorMask<Byte> matches = v.eq((byte) ' ')
+                    .or(v.compare(VectorOperators.GE, (byte) '\t').and(v.compare(VectorOperators.LE, (byte) '\r')));
+            if (matches.anyTrue()) {
+                return i + matches.firstTrue();
+            }
+        }
+        return tail.indexOfSpace(buf, i, to);
+    }
+
+    @Override
+    public String toString() {
+        return "vector(" + SPECIES.length() + " bytes)";
+    }
+}
@@ -0,0 +1,173 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Checks that keys crafted to collide intern about as fast as random keys of the same length, so
+ * a spray of them cannot turn the dictionaries' linear probing quadratic:
+ * - user names sharing one String.hashCode (every concatenation of "Aa" and "BB" blocks)
+ * - the same names as ip= values, which IpTable interns as text
+ * - IPv6 addresses in one /64 that shared one slot hash while IpTable's hash was unseeded
+ * Also checks that rule 4 counts such user names as distinct users, with and without
+ * --user-sketch.
+ *
+ * Run with: java -cp bin HashFloodTest
+ */
+public class HashFloodTest {
+    private static final int BLOCKS = 15; //2^15 keys
+    private static final int KEYS = 1 << BLOCKS;
+    private static final int ROUNDS = 5;
+    private static final double MAX_RATIO = 4;
+    private static final int SPRAY_NAMES = 32;
+
+    private static final long PREFIX = 0x2001_0DB8_1111_1111L; //2001:db8:1111:1111::/64
+
+    private static int checks;
+    private static int failures;
+
+    /**
+     * Keys laid out back to back, key i ending at ends[i].
+     */
+    private static final class Keys {
+        final ByteBuffer buf = ByteBuffer.allocate(KEYS * 64);
+        final int[] ends = new int[KEYS];
+        int count;
+
+        void add(String key) {
+            buf.put(key.getBytes(StandardCharsets.US_ASCII));
+            ends[count++] = buf.position();
+        }
+    }
+
+    public static void main(String[] args) {
+        Keys names = new Keys();
+        Keys randomNames = new Keys();
+        Keys addresses = new Keys();
+        Keys randomAddresses = new Keys();
+        Random random = new Random(42);
+        for (int key = 0; key < KEYS; key++) {
+            StringBuilder name = new StringBuilder();
+            StringBuilder randomName = new StringBuilder();
+            for (int block = 0; block < BLOCKS; block++) {
+                name.append(((key >>> block) & 1) == 0 ? "Aa" : "BB");
+                randomName.append((char) ('a' + random.nextInt(26))).append((char) ('a' + random.nextInt(26)));
+            }
+            names.add(name.toString());
+            randomNames.add(randomName.toString());
+            addresses.add(address(unseededPreimage(((long) key << 32) | 0x1234)));
+            randomAddresses.add(address(random.nextLong()));
+        }
+
+        expectWithin("SymbolTable names", names, randomNames, false);
+        expectWithin("IpTable hostnames", names, randomNames, true);
+        expectWithin("IpTable addresses", addresses, randomAddresses, true);
+        expectDistinct("Rule 4", names, false);
+        expectDistinct("Rule 4 with --user-sketch", names, true);
+
+        System.out.println("Checked " + checks + " cases, " + failures + " failures");
+        if (failures != 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return the low 64 bits of an address in PREFIX whose unseeded IpTable hash was 'hash'
+     */
+    private static long unseededPreimage(long hash) {
+        long h = hash ^ (hash >>> 33);
+        h *= inverse(0xFF51AFD7ED558CCDL);
+        h ^= h >>> 33;
+        return h - PREFIX * 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * @return the multiplicative inverse of odd 'a' modulo 2^64
+     */
+    private static long inverse(long a) {
+        long x = a;
+        for (int i = 0; i < 5; i++) {
+            x *= 2 - a * x;
+        }
+        return x;
+    }
+
+    /**
+     * @return the canonical text of PREFIX:lo; a zero group is written as 1, so there is no run
+     *         of zero groups for "::" to replace
+     */
+    private static String address(long lo) {
+        StringBuilder text = new StringBuilder("2001:db8:1111:1111");
+        for (int shift = 48; shift >= 0; shift -= 16) {
+            int group = (int) (lo >>> shift) & 0xFFFF;
+            text.append(':').append(Integer.toHexString(group == 0 ? 1 : group));
+        }
+        return text.toString();
+    }
+
+    private static void expectWithin(String check, Keys crafted, Keys random, boolean ipTable) {
+        checks++;
+        long craftedNanos = Long.MAX_VALUE;
+        long randomNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            craftedNanos = Math.min(craftedNanos, intern(crafted, ipTable));
+            randomNanos = Math.min(randomNanos, intern(random, ipTable));
+        }
+        if (craftedNanos > randomNanos * MAX_RATIO) {
+            failures++;
+            System.out.println(check + ": crafted keys took " + craftedNanos / 1_000_000 + " ms, random ones "
+                    + randomNanos / 1_000_000 + " ms");
+        }
+    }
+
+    /**
+     * Fails SPRAY_NAMES of the crafted names from one IP and checks that they count as that many
+     * distinct users (below DistinctCounts.SET_LIMIT, so exactly).
+     */
+    private static void expectDistinct(String check, Keys names, boolean sketch) {
+        checks++;
+        DetectorState state = new DetectorState();
+        if (sketch) {
+            state.sketchUsers(UserSketch.MIN_KB << 10);
+        }
+        byte[] ip = "10.0.0.1".getBytes(StandardCharsets.US_ASCII);
+        for (int key = 0, from = 0; key < SPRAY_NAMES; from = names.ends[key++]) {
+            byte[] user = new byte[names.ends[key] - from];
+            names.buf.get(from, user);
+            ByteBuffer line = ByteBuffer.allocate(user.length + ip.length).put(user).put(ip);
+            //An hour apart, so rule 1 is not involved
+            state.failed(key + 1, key * 3600L, line, 0, user.length, user.length, line.capacity());
+        }
+        int distinct = state.usersPerIp.estimate(0); //the only IP
+        if (distinct != SPRAY_NAMES) {
+            failures++;
+            System.out.println(check + ": " + SPRAY_NAMES + " names counted as " + distinct + " distinct users");
+        }
+    }
+
+    /**
+     * Interns every key into a new table.
+     * @return the time taken, in nanoseconds
+     */
+    private static long intern(Keys keys, boolean ipTable) {
+        long start = System.nanoTime();
+        int size;
+        if (ipTable) {
+            IpTable table = new IpTable();
+            for (int key = 0, from = 0; key < keys.count; from = keys.ends[key++]) {
+                table.intern(keys.buf, from, keys.ends[key]);
+            }
+            size = table.size();
+        } else {
+            SymbolTable table = new SymbolTable();
+            for (int key = 0, from = 0; key < keys.count; from = keys.ends[key++]) {
+                table.intern(keys.buf, from, keys.ends[key]);
+            }
+            size = table.size();
+        }
+        long nanos = System.nanoTime() - start;
+        if (size != keys.count) {
+            throw new IllegalStateException("Expected " + keys.count + " keys but got " + size);
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,60 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Checks the order LogFiles.resolve reads rotated logs in: numbered logrotate names and dateext
+ * names, oldest first, the live file last.
+ *
+ * Run with: java -cp bin LogFilesTest
+ */
+public class LogFilesTest {
+    private static int checks;
+    private static int failures;
+
+    public static void main(String[] args) throws IOException {
+        expectOrder("auth.log.14.gz", "auth.log.3.gz", "auth.log.2.gz", "auth.log.1", "auth.log");
+        expectOrder("secure-20251124.gz", "secure-20251201.gz", "secure-20251208", "secure-20251215", "secure");
+        expectOrder("auth.log-20251231.gz", "auth.log-20260101", "auth.log");
+        expectOrder("auth.log-2025-12-31-23", "auth.log-2026-01-01-00", "auth.log");
+        expectOrder("auth.log.20251231", "auth.log.20260101", "auth.log");
+
+        System.out.println("Checked " + checks + " orders, " + failures + " failures");
+        if (failures != 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Creates 'names' in a new directory, in reverse, and checks that resolve returns them in
+     * the given order.
+     */
+    private static void expectOrder(String... names) throws IOException {
+        checks++;
+        Path dir = Files.createTempDirectory("logfiles");
+        try {
+            for (int i = names.length - 1; i >= 0; i--) {
+                Files.createFile(dir.resolve(names[i]));
+            }
+            List<String> order = new ArrayList<>();
+            for (Path file : LogFiles.resolve(dir.toString())) {
+                order.add(file.getFileName().toString());
+            }
+            if (!order.equals(Arrays.asList(names))) {
+                failures++;
+                System.out.println("Expected " + Arrays.asList(names) + " but got " + order);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that --pipeline writes the same report as a sequential run, with lines ended by '\n',
+ * "\r\n" or a bare '\r', including a "\r\n" split across the first block boundary, and that the
+ * report does not depend on the line terminator.
+ *
+ * Run with: java -cp bin PipelinedAnalyzerTest
+ */
+public class PipelinedAnalyzerTest {
+    private static final int LINES = 20_000; //several blocks
+
+    private static int checks;
+    private static int failures;
+
+    public static void main(String[] args) throws IOException {
+        List<String> lines = lines();
+        Path dir = Files.createTempDirectory("pipeline");
+        Path log = dir.resolve("auth.log");
+        Path report = dir.resolve("report.txt");
+        try {
+            String expected = null;
+            for (String terminator : new String[] {"\n", "\r\n", "\r"}) {
+                write(log, lines, terminator);
+                String sequential = report(report, log.toString());
+                String pipelined = report(report, "--pipeline", "2", log.toString());
+                expectSame(name(terminator) + " --pipeline", sequential, pipelined);
+                if (expected == null) {
+                    expected = sequential;
+                } else {
+                    expectSame(name(terminator) + " against \\n", expected, sequential);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(log);
+            Files.deleteIfExists(report);
+            Files.delete(dir);
+        }
+
+        System.out.println("Checked " + checks + " reports, " + failures + " failures");
+        if (failures != 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return failures and successes from a few busy IPs, so rules 1 to 3 all fire
+     */
+    private static List<String> lines() {
+        Random random = new Random(7);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < LINES; i++) {
+            int second = i / 4;
+            String time = String.format("2025-12-18 %02d:%02d:%02d", second / 3600, second / 60 % 60, second % 60);
+            String type = (random.nextInt(20) == 0) ? "SUCCESS_LOGIN" : "FAILED_LOGIN";
+            lines.add(time + " " + type + " user=user" + random.nextInt(500) + " ip=10.0." + random.nextInt(8) + "." + random.nextInt(200));
+        }
+        return lines;
+    }
+
+    /**
+     * Writes 'lines' ended by 'terminator'. A first line of padding puts the first byte of a
+     * terminator in the last byte of the first block, so a "\r\n" is split across it.
+     */
+    private static void write(Path log, List<String> lines, String terminator) throws IOException {
+        int end = terminator.length(); //offset of the first line, after the padding
+        int pad = 0;
+        for (String line : lines) {
+            int fit = PipelinedAnalyzer.BLOCK_SIZE - 1 - end - line.length();
+            if (fit < 0) {
+                break;
+            }
+            pad = fit;
+            end += line.length() + terminator.length();
+        }
+        StringBuilder text = new StringBuilder("#".repeat(pad)).append(terminator);
+        for (String line : lines) {
+            text.append(line).append(terminator);
+        }
+        Files.write(log, text.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Runs LogDetector with 'args' followed by 'report'.
+     * @return the report
+     */
+    private static String report(Path report, String... args) throws IOException {
+        String[] withReport = new String[args.length + 1];
+        System.arraycopy(args, 0, withReport, 0, args.length);
+        withReport[args.length] = report.toString();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            LogDetector.main(withReport);
+        } finally {
+            System.setOut(out);
+        }
+        return Files.readString(report);
+    }
+
+    private static void expectSame(String check, String expected, String actual) {
+        checks++;
+        if (!expected.equals(actual)) {
+            failures++;
+            System.out.println(check + ": reports differ");
+        }
+    }
+
+    private static String name(String terminator) {
+        return terminator.replace("\r", "\\r").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Checks that a UserSketch holds no more direct memory than its --user-sketch budget, and at
+ * least half of it (the width is the largest power of two that fits).
+ *
+ * Run with: java -cp bin UserSketchTest
+ */
+public class UserSketchTest {
+    private static int checks;
+    private static int failures;
+
+    public static void main(String[] args) {
+        for (long kb : new long[] {UserSketch.MIN_KB, 17, 20, 31, 32, 48, 63, 64, 100, 1000, 4096, 10_000}) {
+            expectWithin(kb);
+        }
+
+        System.out.println("Checked " + checks + " budgets, " + failures + " failures");
+        if (failures != 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void expectWithin(long kb) {
+        checks++;
+        long budget = kb << 10;
+        UserSketch sketch = new UserSketch(budget);
+        long bytes = sketch.bytes();
+        if (bytes > budget || bytes * 2 <= budget) {
+            failures++;
+            System.out.println("--user-sketch " + kb + ": expected at most " + budget + " bytes and over half of it, but got "
+                    + bytes + " (width " + sketch.width() + ")");
+        }
+    }
+}